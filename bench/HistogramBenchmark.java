@@ -0,0 +1,306 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/** Benchmarks of Histogram ingestion, statistics and resize paths.
+ *
+ * Every benchmark runs for every number of bins in a fresh JVM, so JIT profile of one benchmark
+ * does not affect the others. Each run has warm-up iterations that are not measured and measured
+ * iterations that report mean time of operation with standard deviation between iterations.
+ *
+ * JMH is not used: it refuses benchmark classes in the default package and Histogram has no package
+ * to import it from. The harness follows the same scheme of forks, warm-up and measurement.
+ *
+ * Usage: HistogramBenchmark [-f regex] [-b 10,100,...] [-w warmups] [-i iterations] [-t millis] [-h]
+ */
+public class HistogramBenchmark {
+
+    /** Operation measured by benchmark.
+     *
+     */
+    private interface Operation {
+        /** Run operation once.
+         *
+         * @return value that depends on result, to keep JIT from removing work.
+         */
+        double run();
+    }
+
+    private static final int VALUES = 1 << 20; // Values added by one ingestion operation.
+    private static final int SEED = 42; // Seed of random data, same for every run.
+    private static final Map<String, IntFunction<Operation>> BENCHMARKS = new LinkedHashMap<>(); // By name.
+    private static volatile double sink; // Results of operations.
+
+    static {
+        for (Histogram.AppendType appendType : Histogram.AppendType.values()) {
+            BENCHMARKS.put("addNumber." + appendType, bins -> {
+                Histogram histogram = new Histogram(0, 1000, bins);
+                double[] data = data(-100, 1100);
+                return () -> {
+                    for (double value : data) {
+                        histogram.addNumber(value, appendType);
+                    }
+                    return histogram.getBins();
+                };
+            });
+        }
+        BENCHMARKS.put("addBatch.double", bins -> {
+            Histogram histogram = new Histogram(0, 1000, bins);
+            double[] data = data(-100, 1100);
+            return () -> {
+                histogram.addBatch(data, Histogram.AppendType.ADD_TO_EDGE);
+                return histogram.getBins();
+            };
+        });
+        BENCHMARKS.put("addBatch.float", bins -> {
+            Histogram histogram = new Histogram(0, 1000, bins);
+            double[] source = data(-100, 1100);
+            float[] data = new float[source.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (float) source[i];
+            }
+            return () -> {
+                histogram.addBatch(data, Histogram.AppendType.ADD_TO_EDGE);
+                return histogram.getBins();
+            };
+        });
+        BENCHMARKS.put("addBatch.int", bins -> {
+            Histogram histogram = new Histogram(0, 1000, bins);
+            double[] source = data(-100, 1100);
+            int[] data = new int[source.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (int) source[i];
+            }
+            return () -> {
+                histogram.addBatch(data, Histogram.AppendType.ADD_TO_EDGE);
+                return histogram.getBins();
+            };
+        });
+        for (int megabytes : new int[]{1, 16, 128}) {
+            BENCHMARKS.put("addBatch.file." + megabytes + "MB", bins -> {
+                Histogram histogram = new Histogram(0, 1000, bins);
+                Path file = file(megabytes);
+                return () -> {
+                    histogram.addBatch(file.toString(), Histogram.AppendType.ADD_TO_EDGE);
+                    return histogram.getBins();
+                };
+            });
+        }
+        BENCHMARKS.put("describe", bins -> {
+            Histogram histogram = filled(bins);
+            return () -> histogram.describe().length();
+        });
+        BENCHMARKS.put("median", bins -> {
+            Histogram histogram = filled(bins);
+            return histogram::median;
+        });
+        BENCHMARKS.put("setBins", bins -> {
+            Histogram histogram = filled(bins);
+            return () -> {
+                Histogram copy = histogram.copy();
+                copy.setBins(Math.max(1, bins / 3));
+                return copy.getBins();
+            };
+        });
+        BENCHMARKS.put("export.1000", bins -> {
+            Histogram histogram = filled(bins);
+            OpenMetricsExporter exporter = new OpenMetricsExporter();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            String[] instances = new String[1000];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = "node-" + i;
+            }
+            return () -> {
+                exporter.family("request_duration_seconds", "Duration of requests.");
+                for (String instance : instances) {
+                    exporter.histogram(histogram, "instance", instance);
+                }
+                long bytes = 0;
+                boolean done;
+                do {
+                    done = exporter.writeTo(buffer);
+                    bytes += buffer.position();
+                    buffer.clear();
+                } while (!done);
+                return bytes;
+            };
+        });
+    }
+
+    /** Random values.
+     *
+     * @param min lower boundary of values.
+     * @param max upper boundary of values.
+     * @return VALUES uniformly distributed values.
+     */
+    private static double[] data(double min, double max) {
+        Random random = new Random(SEED);
+        double[] data = new double[VALUES];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = min + (max - min) * random.nextDouble();
+        }
+        return data;
+    }
+
+    /** Histogram from 0 to 1000 with VALUES values.
+     *
+     * @param bins number of bins.
+     * @return histogram.
+     */
+    private static Histogram filled(int bins) {
+        Histogram histogram = new Histogram(0, 1000, bins);
+        histogram.addBatch(data(0, 1000), Histogram.AppendType.INTERVAL_ONLY);
+        return histogram;
+    }
+
+    /** Temporary file with random values, deleted on exit.
+     *
+     * @param megabytes approximate size of file.
+     * @return path to file.
+     */
+    private static Path file(int megabytes) {
+        try {
+            Path file = Files.createTempFile("histogram-bench", ".txt");
+            file.toFile().deleteOnExit();
+            Random random = new Random(SEED);
+            try (Writer writer = Files.newBufferedWriter(file)) {
+                long size = 0;
+                while (size < (long) megabytes << 20) {
+                    String value = Double.toString(Math.round(random.nextDouble() * 1200000 - 100000) / 1000.0);
+                    writer.write(value);
+                    writer.write(size % 80 < 70 ? ' ' : '\n');
+                    size += value.length() + 1;
+                }
+            }
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Run benchmark in this JVM and print result line.
+     *
+     * @param name name of benchmark.
+     * @param bins number of bins.
+     * @param warmups number of warm-up iterations.
+     * @param iterations number of measured iterations.
+     * @param millis duration of one iteration.
+     */
+    private static void run(String name, int bins, int warmups, int iterations, long millis) {
+        Operation operation = BENCHMARKS.get(name).apply(bins);
+        for (int i = 0; i < warmups; i++) {
+            iteration(operation, millis);
+        }
+        double[] times = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            times[i] = iteration(operation, millis);
+        }
+        double mean = 0;
+        for (double time : times) {
+            mean += time / iterations;
+        }
+        double variance = 0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean) / Math.max(1, iterations - 1);
+        }
+        System.out.println(String.format(Locale.ROOT, "%-26s %8d %14.3f %12.3f  us/op",
+                name, bins, mean / 1000, Math.sqrt(variance) / 1000));
+    }
+
+    /** Run operation repeatedly for given time.
+     *
+     * @param operation operation.
+     * @param millis duration of iteration.
+     * @return mean time of operation in nanoseconds.
+     */
+    private static double iteration(Operation operation, long millis) {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long start = System.nanoTime();
+        long count = 0;
+        double result = 0;
+        long now;
+        do {
+            result += operation.run();
+            count++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink = result;
+        return (double) (now - start) / count;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Pattern filter = Pattern.compile(".*");
+        int[] binsList = {10, 100, 1000, 10000, 100000};
+        int warmups = 5;
+        int iterations = 5;
+        long millis = 1000;
+        String run = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f": filter = Pattern.compile(args[++i]); break;
+                case "-b": binsList = parseInts(args[++i]); break;
+                case "-w": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-t": millis = Long.parseLong(args[++i]); break;
+                case "--run": run = args[++i]; break;
+                default:
+                    System.out.println("Usage: HistogramBenchmark [-f regex] [-b 10,100,...] [-w warmups]"
+                            + " [-i iterations] [-t millis]");
+                    System.out.println("Benchmarks: " + BENCHMARKS.keySet());
+                    return;
+            }
+        }
+        if (run != null) {
+            run(run, binsList[0], warmups, iterations, millis);
+            return;
+        }
+        System.out.println(String.format(Locale.ROOT, "%-26s %8s %14s %12s", "Benchmark", "bins", "mean", "stddev"));
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (String name : BENCHMARKS.keySet()) {
+            if (!filter.matcher(name).find()) {
+                continue;
+            }
+            for (int bins : binsList) {
+                List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                        HistogramBenchmark.class.getName(), "--run", name, "-b", Integer.toString(bins),
+                        "-w", Integer.toString(warmups), "-i", Integer.toString(iterations),
+                        "-t", Long.toString(millis)));
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        System.out.println(line);
+                    }
+                }
+                process.waitFor();
+            }
+        }
+    }
+
+    /** Parse comma separated integers.
+     *
+     * @param list list.
+     * @return integers.
+     */
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,268 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalIntervalBounds;
+
+import java.util.Arrays;
+
+/** Histogram that picks its boundaries and number of bins from the first values.
+ *
+ * First values are buffered in array, then range of histogram is set from min to max of them
+ * and number of bins is chosen by Freedman-Diaconis or Sturges rule, buffered values are replayed
+ * into histogram and next values are counted directly. Value out of range doubles width of intervals,
+ * so adjacent pairs of intervals are merged and range is doubled on the side of value: number of bins
+ * never changes and memory is bounded whatever outliers come. Moments are exact.
+ * Not thread-safe.
+ */
+public class AutoRangingHistogram {
+
+    /** Rule for number of bins.
+     *
+     */
+    public enum BinRule {
+        FREEDMAN_DIACONIS, // Width of interval is 2 * IQR / n^(1/3), Sturges rule if IQR is 0.
+        STURGES, // Number of bins is log2(n) + 1.
+    }
+
+    public static final int DEFAULT_WARMUP = 1000; // Number of buffered values by default.
+    public static final int DEFAULT_MAX_BINS = 1024; // Most bins by default.
+
+    private double[] warmup; // Buffered values, null after warm-up.
+    private int buffered; // Number of buffered values.
+    private final int maxBins; // Most bins of histogram.
+    private final BinRule rule; // Rule for number of bins.
+    private Histogram histogram; // Histogram after warm-up, null before.
+    private Histogram preview; // Histogram of buffered values during warm-up, null if not built since the last add.
+
+    /** Constructor for AutoRangingHistogram with default warm-up and Freedman-Diaconis rule.
+     *
+     */
+    public AutoRangingHistogram() {
+        this(DEFAULT_WARMUP, DEFAULT_MAX_BINS, BinRule.FREEDMAN_DIACONIS);
+    }
+
+    /** Constructor for AutoRangingHistogram.
+     *
+     * @param warmup number of values buffered before range is chosen.
+     * @param maxBins most bins of histogram, at least 2.
+     * @param rule rule for number of bins.
+     */
+    public AutoRangingHistogram(int warmup, int maxBins, BinRule rule) {
+        if (warmup <= 0) {
+            throw new IllegalBinsValue("Number of warm-up values should be positive.");
+        }
+        if (maxBins < 2) {
+            throw new IllegalBinsValue("Auto-ranging histogram needs at least 2 'bins'.");
+        }
+        this.warmup = new double[warmup];
+        this.maxBins = maxBins;
+        this.rule = rule;
+    }
+
+    /** Add single number, values that are not finite are ignored.
+     *
+     * @param newValue value.
+     */
+    public void addNumber(double newValue) {
+        if (!Double.isFinite(newValue)) {
+            return;
+        }
+        if (this.histogram == null) {
+            this.warmup[this.buffered++] = newValue;
+            this.preview = null;
+            if (this.buffered == this.warmup.length) {
+                this.histogram = build(this.warmup, this.buffered);
+                this.warmup = null;
+            }
+            return;
+        }
+        while (newValue < this.histogram.getMinH() || newValue > this.histogram.getMaxH()) {
+            doubleWidth(newValue);
+        }
+        this.histogram.addNumber(newValue, Histogram.AppendType.INTERVAL_ONLY);
+    }
+
+    /** Add array of values.
+     *
+     * @param data array.
+     */
+    public void addBatch(double[] data) {
+        for (double num: data) {
+            addNumber(num);
+        }
+    }
+
+    /** Histogram of values with range and bins chosen by rule.
+     *
+     * @param values values.
+     * @param length number of values to use.
+     * @return histogram with exact moments.
+     */
+    private Histogram build(double[] values, int length) {
+        if (length == 0) {
+            return new Histogram(0, 1, 2, true);
+        }
+        double[] sorted = Arrays.copyOf(values, length);
+        Arrays.sort(sorted);
+        double min = sorted[0];
+        double max = sorted[length - 1];
+        Histogram histogram;
+        if (min < max) {
+            histogram = new Histogram(min, max, bins(sorted), true);
+        } else {
+            histogram = new Histogram(min - 0.5, max + 0.5, 2, true);
+        }
+        histogram.addBatch(sorted, Histogram.AppendType.INTERVAL_ONLY);
+        return histogram;
+    }
+
+    /** Number of bins for values by rule, even and from 2 to maxBins.
+     *
+     * @param sorted sorted values, not all equal.
+     * @return number of bins.
+     */
+    private int bins(double[] sorted) {
+        int n = sorted.length;
+        double bins = Math.ceil(Math.log(n) / Math.log(2)) + 1;
+        if (this.rule == BinRule.FREEDMAN_DIACONIS) {
+            double iqr = sorted[(3 * n) / 4] - sorted[n / 4];
+            if (iqr > 0) {
+                bins = Math.ceil((sorted[n - 1] - sorted[0]) / (2 * iqr / Math.cbrt(n)));
+            }
+        }
+        int even = (int) Math.min(this.maxBins, Math.max(2, bins));
+        return even % 2 == 0 ? even : even == this.maxBins ? even - 1 : even + 1;
+    }
+
+    /** Merge adjacent pairs of intervals and double range towards value.
+     *
+     * @param value value out of range.
+     */
+    private void doubleWidth(double value) {
+        double minH = this.histogram.getMinH();
+        double maxH = this.histogram.getMaxH();
+        double size = maxH - minH;
+        if (value < minH) {
+            minH -= size;
+        } else {
+            maxH += size;
+        }
+        if (!Double.isFinite(minH) || !Double.isFinite(maxH)) {
+            throw new IllegalIntervalBounds("Can not expand histogram to " + value + ".");
+        }
+        Histogram wider = new Histogram(minH, maxH, this.histogram.getBins(), true);
+        wider.merge(this.histogram);
+        this.histogram = wider;
+    }
+
+    /** Whether range and bins are chosen.
+     *
+     * @return true after warm-up.
+     */
+    public boolean isWarmedUp() {
+        return this.histogram != null;
+    }
+
+    /** Histogram of added values.
+     *
+     * During warm-up it is built from buffered values by the same rule, range is not fixed by it.
+     *
+     * @return copy of histogram.
+     */
+    public Histogram snapshot() {
+        return current().copy();
+    }
+
+    /** Current histogram, built from buffer during warm-up.
+     *
+     * Histogram of buffered values is sorted and built once and kept until the next value is added,
+     * so queries between adds do not repeat it.
+     *
+     * @return histogram, not copied.
+     */
+    private Histogram current() {
+        if (this.histogram != null) {
+            return this.histogram;
+        }
+        if (this.preview == null) {
+            this.preview = build(this.warmup, this.buffered);
+        }
+        return this.preview;
+    }
+
+    /** Getter for minH.
+     *
+     * @return Lower boundary of histogram.
+     */
+    public double getMinH() {
+        return current().getMinH();
+    }
+
+    /** Getter for maxH.
+     *
+     * @return Upper boundary of histogram.
+     */
+    public double getMaxH() {
+        return current().getMaxH();
+    }
+
+    /** Getter for bins.
+     *
+     * @return number of bins.
+     */
+    public int getBins() {
+        return current().getBins();
+    }
+
+    /** Count all elements in histogram.
+     *
+     * @return number of elements in histogram.
+     */
+    public long count() {
+        return this.histogram != null ? this.histogram.count() : this.buffered;
+    }
+
+    /** Mean
+     *
+     * @return mean
+     */
+    public double mean() {
+        return current().mean();
+    }
+
+    /**
+     *
+     * @return Median.
+     */
+    public double median() {
+        return current().median();
+    }
+
+    /** Quantile of added values, see Histogram.quantile(double).
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile or NaN if histogram is empty.
+     */
+    public double quantile(double q) {
+        return current().quantile(q);
+    }
+
+    /**
+     *
+     * @return Standard Deviation.
+     */
+    public double std() {
+        return current().std();
+    }
+
+    /** Statistical describe of histogram.
+     *
+     * @return string.
+     */
+    public String describe() {
+        return current().describe();
+    }
+
+    @Override
+    public String toString() {
+        return current().toString();
+    }
+}
@@ -0,0 +1,70 @@
+import exceptions.IllegalBinsValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+class AutoRangingHistogramTest {
+
+    @Test
+    void rangingTest(){
+        Random random = new Random(22);
+        double[] data = new double[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 10 + random.nextGaussian();
+        }
+        AutoRangingHistogram histogram = new AutoRangingHistogram(1000, 64, AutoRangingHistogram.BinRule.FREEDMAN_DIACONIS);
+        histogram.addBatch(Arrays.copyOf(data, 999));
+        Assertions.assertFalse(histogram.isWarmedUp());
+        Assertions.assertEquals(999, histogram.count());
+        histogram.addNumber(data[999]);
+        histogram.addNumber(Double.NaN);
+        Assertions.assertTrue(histogram.isWarmedUp());
+        Assertions.assertEquals(1000, histogram.count());
+        Assertions.assertEquals(Arrays.stream(data).min().getAsDouble(), histogram.getMinH(), 1e-12);
+        Assertions.assertEquals(Arrays.stream(data).max().getAsDouble(), histogram.getMaxH(), 1e-9);
+        int bins = histogram.getBins();
+        Assertions.assertTrue(bins > 12 && bins < 64 && bins % 2 == 0);
+
+        //outliers double width of intervals, number of bins and exact moments are kept.
+        double size = histogram.getMaxH() - histogram.getMinH();
+        Histogram before = histogram.snapshot();
+        histogram.addNumber(histogram.getMaxH() + 3 * size);
+        Assertions.assertEquals(bins, histogram.getBins());
+        Assertions.assertEquals(4 * size, histogram.getMaxH() - histogram.getMinH(), 1e-9);
+        Assertions.assertEquals(1001, histogram.count());
+        Histogram after = histogram.snapshot();
+        for (int i = 0; i < bins / 4; i++) {
+            long expected = 0;
+            for (int j = 4 * i; j < 4 * i + 4; j++) {
+                expected += before.count(j);
+            }
+            Assertions.assertEquals(expected, after.count(i));
+        }
+        Assertions.assertEquals(1, after.count(bins - 1));
+        histogram.addNumber(-1e6);
+        Assertions.assertEquals(bins, histogram.getBins());
+        Assertions.assertTrue(histogram.getMinH() <= -1e6);
+        double sum = Arrays.stream(data).sum() + before.getMaxH() + 3 * size - 1e6;
+        Assertions.assertEquals(sum / 1002, histogram.mean(), 1e-9);
+
+        AutoRangingHistogram sturges = new AutoRangingHistogram(1000, 64, AutoRangingHistogram.BinRule.STURGES);
+        sturges.addBatch(data);
+        Assertions.assertEquals(12, sturges.getBins());
+        AutoRangingHistogram constant = new AutoRangingHistogram(3, 8, AutoRangingHistogram.BinRule.FREEDMAN_DIACONIS);
+        Assertions.assertEquals(0, constant.count());
+
+        //histogram of buffer is kept between queries and rebuilt after add.
+        constant.addNumber(5);
+        Assertions.assertEquals(5, constant.mean(), 1e-12);
+        Assertions.assertEquals(1, constant.snapshot().count());
+        constant.addNumber(5);
+        Assertions.assertEquals(2, constant.snapshot().count());
+        constant.addBatch(new double[]{5, 6});
+        Assertions.assertEquals(2, constant.getBins());
+        Assertions.assertEquals(4, constant.count());
+        Assertions.assertEquals(5.25, constant.mean(), 1e-12);
+        Assertions.assertThrows(IllegalBinsValue.class, () -> new AutoRangingHistogram(10, 1, AutoRangingHistogram.BinRule.STURGES));
+    }
+}
@@ -0,0 +1,201 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+
+import java.nio.ByteBuffer;
+
+/** Boundaries of intervals of Histogram.
+ *
+ * Interval i is (floor(i); ceil(i)], first interval also contains its floor.
+ * Ceil of interval is floor of the next one, so intervals do not overlap.
+ * Layout is immutable, growing returns new layout.
+ */
+abstract class BinLayout {
+    static final byte LINEAR = 0; // Encoding type of LinearLayout.
+    static final byte EXPONENTIAL = 1; // Encoding type of ExponentialLayout.
+    static final byte LOG_LINEAR = 2; // Encoding type of LogLinearLayout.
+    static final int MAX_BINS = Integer.MAX_VALUE - 8; // Biggest number of intervals.
+
+    private final int bins; // Number of intervals.
+
+    /** Constructor for BinLayout.
+     *
+     * @param bins number of intervals.
+     */
+    BinLayout(int bins) {
+        this.bins = bins;
+    }
+
+    /** Getter for bins.
+     *
+     * @return number of intervals.
+     */
+    int bins() {
+        return this.bins;
+    }
+
+    /** Lower boundary of interval.
+     *
+     * @param index index of the interval, may be out of layout.
+     * @return floor.
+     */
+    abstract double floor(int index);
+
+    /** Upper boundary of interval.
+     *
+     * @param index index of the interval.
+     * @return ceil.
+     */
+    double ceil(int index) {
+        return floor(index + 1);
+    }
+
+    /** Median of interval.
+     *
+     * @param index index of the interval.
+     * @return median.
+     */
+    double midpoint(int index) {
+        return (floor(index) + ceil(index)) / 2;
+    }
+
+    /** Index of the interval that contains value.
+     *
+     * @param value value to look up.
+     * @return index of interval or -1 if no interval contains value.
+     */
+    abstract int index(double value);
+
+    /** Index of the interval that contains value, starting from approximate index.
+     *
+     * Guess is corrected against real interval boundaries, so floating-point rounding near
+     * the edges can not put value into the wrong interval.
+     *
+     * @param value value to look up.
+     * @param guess approximate index, may be out of layout or NaN.
+     * @return index of interval or -1 if no interval contains value.
+     */
+    int locate(double value, double guess) {
+        int last = this.bins - 1;
+        int index = guess >= last ? last : guess <= 0 ? 0 : (int) guess;
+        while (index > 0 && value <= floor(index)) {
+            index--;
+        }
+        while (index < last && value > ceil(index)) {
+            index++;
+        }
+        double floor = floor(index);
+        boolean contains = index == 0 ? floor <= value : floor < value;
+        return contains && value <= ceil(index) ? index : -1;
+    }
+
+    /** Index of interval for value added to histogram from minH to maxH.
+     *
+     * @param value value.
+     * @param min lower boundary of histogram.
+     * @param max upper boundary of histogram.
+     * @param toEdge if true, values out of range go to edge intervals.
+     * @return index of interval or -1 if value is not counted.
+     */
+    int index(double value, double min, double max, boolean toEdge) {
+        if (value >= min && value <= max) {
+            return index(value);
+        } else if (toEdge && value < min) {
+            return 0;
+        } else if (toEdge && value > max) {
+            return this.bins - 1;
+        }
+        return -1;
+    }
+
+    /** Indices of intervals for block of values, see index(double, double, double, boolean).
+     *
+     * @param values values.
+     * @param from index of the first value.
+     * @param to index after the last value.
+     * @param min lower boundary of histogram.
+     * @param max upper boundary of histogram.
+     * @param toEdge if true, values out of range go to edge intervals.
+     * @param indices buffer for (to - from) indices, -1 for values that are not counted.
+     * @return number of values counted on the left boundary of the first interval.
+     */
+    int indices(double[] values, int from, int to, double min, double max, boolean toEdge, int[] indices) {
+        int onLeft = 0;
+        for (int i = from; i < to; i++) {
+            int index = index(values[i], min, max, toEdge);
+            indices[i - from] = index;
+            onLeft += values[i] <= min && index == 0 ? 1 : 0;
+        }
+        return onLeft;
+    }
+
+    /** Number of intervals to add to the left, so the first one contains value.
+     *
+     * @param value value lower than floor of the first interval.
+     * @return number of intervals, at least 1, or Integer.MAX_VALUE if layout can not have so many intervals.
+     */
+    abstract int addedToLeft(double value);
+
+    /** Number of intervals to add to the right, so the last one contains value.
+     *
+     * @param value value bigger than ceil of the last interval.
+     * @return number of intervals, at least 1, or Integer.MAX_VALUE if layout can not have so many intervals.
+     */
+    abstract int addedToRight(double value);
+
+    /** Index of the first interval of other layout in this layout.
+     *
+     * @param other other layout.
+     * @return index (may be out of this layout) or Integer.MIN_VALUE if intervals of layouts do not coincide.
+     */
+    abstract int alignedOffset(BinLayout other);
+
+    /** Layout with more intervals on both ends.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return new layout.
+     */
+    abstract BinLayout grow(int left, int right);
+
+    /** Layout of the same kind over new boundaries, if the kind allows that number of intervals.
+     *
+     * @param minH lower boundary.
+     * @param maxH upper boundary.
+     * @param bins number of intervals.
+     * @return new layout, its boundaries may be wider than requested.
+     * @throws IllegalBinsValue if the kind does not allow that number of intervals.
+     */
+    abstract BinLayout resized(double minH, double maxH, int bins);
+
+    /** Size of encoded layout.
+     *
+     * @return size in bytes.
+     */
+    abstract int encodedSize();
+
+    /** Write type and parameters of layout, number of intervals is not written.
+     *
+     * @param buffer buffer.
+     */
+    abstract void encode(ByteBuffer buffer);
+
+    /** Read layout written by encode().
+     *
+     * @param buffer buffer.
+     * @param bins number of intervals.
+     * @return layout.
+     */
+    static BinLayout decode(ByteBuffer buffer, int bins) {
+        byte type = buffer.get();
+        switch (type) {
+            case LINEAR:
+                return LinearLayout.decode(buffer, bins);
+            case EXPONENTIAL:
+                return ExponentialLayout.decode(buffer, bins);
+            case LOG_LINEAR:
+                return LogLinearLayout.decode(buffer, bins);
+            default:
+                throw new IllegalHistogramEncoding("Unknown layout of encoded histogram.");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/** Storage of interval counts for Histogram.
+ *
+ * Intervals are addressed by index from 0 to size()-1. Edges of intervals are not stored,
+ * Histogram computes them from its own boundaries.
+ */
+abstract class BinStorage {
+
+    /** Kind of storage that Histogram creates for its intervals.
+     *
+     */
+    enum Kind {
+        DENSE, // Long counters on heap, sparse storage for too many intervals.
+        COMPACT, // Byte counters widened on overflow, sparse storage for too many intervals.
+        OFF_HEAP, // Long counters in direct memory.
+    }
+
+    static final int DENSE_LIMIT = 1 << 24; // Biggest number of empty intervals created as dense storage.
+
+    /** Empty storage of suitable kind.
+     *
+     * @param size number of intervals.
+     * @return dense storage, or sparse one if dense would be too big.
+     */
+    static BinStorage create(int size) {
+        return create(size, Kind.DENSE);
+    }
+
+    /** Empty storage of given kind.
+     *
+     * @param size number of intervals.
+     * @param kind kind of storage.
+     * @return storage of given kind, sparse one if heap storage would be too big.
+     */
+    static BinStorage create(int size, Kind kind) {
+        if (kind == Kind.OFF_HEAP) {
+            return new OffHeapBinStorage(size);
+        }
+        if (size > DENSE_LIMIT) {
+            return new SparseBinStorage(size, kind);
+        }
+        return kind == Kind.COMPACT ? new CompactBinStorage(size) : new DenseBinStorage(size);
+    }
+
+    /** Number of intervals in storage.
+     *
+     * @return size.
+     */
+    abstract int size();
+
+    /** Count of values in interval.
+     *
+     * @param index index of the interval.
+     * @return count.
+     */
+    abstract long get(int index);
+
+    /** Add amount of values to interval.
+     *
+     * @param index index of the interval.
+     * @param delta amount of added values.
+     */
+    abstract void add(int index, long delta);
+
+    /** Add one value to each of intervals.
+     *
+     * @param indices indices of intervals, may repeat.
+     * @param length number of indices to use.
+     */
+    void increment(int[] indices, int length) {
+        for (int i = 0; i < length; i++) {
+            add(indices[i], 1);
+        }
+    }
+
+    /** Note values counted on the left boundary of the first interval.
+     *
+     * Histogram keeps their number itself, storages that keep more than counts follow them here.
+     *
+     * @param count number of values, already added to the first interval.
+     */
+    void addOnLeft(long count) {
+    }
+
+    /** Move values on the left boundary of interval to the interval before it.
+     *
+     * @param index index of the interval, intervals before it were just added.
+     * @param count number of values on its left boundary.
+     */
+    void moveOnLeft(int index, long count) {
+        add(index, -count);
+        add(index - 1, count);
+    }
+
+    /** Index of the first interval with non-zero count.
+     *
+     * @param index index to start from.
+     * @return index not lower than given one, or size() if all following intervals are empty.
+     */
+    int next(int index) {
+        while (index < size() && get(index) == 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /** Set all counts to zero, size is kept.
+     *
+     */
+    void clear() {
+        for (int i = next(0); i < size(); i = next(i + 1)) {
+            add(i, -get(i));
+        }
+    }
+
+    /** Add empty intervals to both ends of storage.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return storage with added intervals, this one or storage of other kind.
+     */
+    abstract BinStorage grow(int left, int right);
+
+    /** Storage of kind suitable for current fill ratio.
+     *
+     * @return this storage or its copy of other kind.
+     */
+    BinStorage adapted() {
+        return this;
+    }
+
+    /** Release memory outside of heap, storage can not be used after that.
+     *
+     */
+    void close() {
+    }
+
+    /** Copy of storage.
+     *
+     * @return storage with same counts.
+     */
+    abstract BinStorage copy();
+
+    /** Sum of all counts.
+     *
+     * @return total count.
+     */
+    long total() {
+        long sum = 0;
+        for (int i = 0; i < size(); i++) {
+            sum += get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/** BinStorage with counters of the smallest width that fits counts.
+ *
+ * Counters start as unsigned bytes and all of them are widened to 16, 32 and 64 bits
+ * when some count does not fit, so histograms with few values take 1 byte per interval.
+ * Like dense storage, array keeps free space on both ends.
+ */
+class CompactBinStorage extends BinStorage {
+    private int width; // Bytes per counter: 1, 2, 4 or 8.
+    private long limit; // Biggest count that fits counter.
+    private byte[] bytes; // Counters if width is 1, else null.
+    private char[] chars; // Counters if width is 2, else null.
+    private int[] ints; // Counters if width is 4, else null.
+    private long[] longs; // Counters if width is 8, else null.
+    private int head; // Index of the first interval in counters.
+    private int size; // Number of intervals.
+
+    /** Constructor for CompactBinStorage.
+     *
+     * @param size number of empty intervals.
+     */
+    CompactBinStorage(int size) {
+        this(Byte.BYTES, size, size);
+    }
+
+    private CompactBinStorage(int width, int length, int size) {
+        this.width = width;
+        this.size = size;
+        switch (width) {
+            case Byte.BYTES:
+                this.bytes = new byte[length];
+                this.limit = 0xFFL;
+                break;
+            case Character.BYTES:
+                this.chars = new char[length];
+                this.limit = 0xFFFFL;
+                break;
+            case Integer.BYTES:
+                this.ints = new int[length];
+                this.limit = 0xFFFFFFFFL;
+                break;
+            default:
+                this.longs = new long[length];
+                this.limit = Long.MAX_VALUE;
+        }
+    }
+
+    /** Counter at position in array.
+     *
+     * @param i position.
+     * @return count.
+     */
+    private long read(int i) {
+        switch (this.width) {
+            case Byte.BYTES:
+                return this.bytes[i] & 0xFFL;
+            case Character.BYTES:
+                return this.chars[i];
+            case Integer.BYTES:
+                return this.ints[i] & 0xFFFFFFFFL;
+            default:
+                return this.longs[i];
+        }
+    }
+
+    /** Set counter at position in array.
+     *
+     * @param i position.
+     * @param value count that fits counter.
+     */
+    private void write(int i, long value) {
+        switch (this.width) {
+            case Byte.BYTES:
+                this.bytes[i] = (byte) value;
+                break;
+            case Character.BYTES:
+                this.chars[i] = (char) value;
+                break;
+            case Integer.BYTES:
+                this.ints[i] = (int) value;
+                break;
+            default:
+                this.longs[i] = value;
+        }
+    }
+
+    /** Array of counters.
+     *
+     * @return array of current width.
+     */
+    private Object array() {
+        switch (this.width) {
+            case Byte.BYTES:
+                return this.bytes;
+            case Character.BYTES:
+                return this.chars;
+            case Integer.BYTES:
+                return this.ints;
+            default:
+                return this.longs;
+        }
+    }
+
+    /** Length of array of counters.
+     *
+     * @return length.
+     */
+    private int length() {
+        switch (this.width) {
+            case Byte.BYTES:
+                return this.bytes.length;
+            case Character.BYTES:
+                return this.chars.length;
+            case Integer.BYTES:
+                return this.ints.length;
+            default:
+                return this.longs.length;
+        }
+    }
+
+    /** Widen all counters, so value fits them.
+     *
+     * @param value count that does not fit counter, negative ones need 64 bits.
+     */
+    private void widen(long value) {
+        int width = this.width;
+        do {
+            width *= 2;
+        } while (width < Long.BYTES && (value < 0 || value > (1L << (8 * width)) - 1));
+        CompactBinStorage wide = new CompactBinStorage(width, length(), this.size);
+        for (int i = this.head; i < this.head + this.size; i++) {
+            wide.write(i, read(i));
+        }
+        this.width = wide.width;
+        this.limit = wide.limit;
+        this.bytes = wide.bytes;
+        this.chars = wide.chars;
+        this.ints = wide.ints;
+        this.longs = wide.longs;
+    }
+
+    /** Bytes per counter.
+     *
+     * @return 1, 2, 4 or 8.
+     */
+    int width() {
+        return this.width;
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    @Override
+    long get(int index) {
+        return read(this.head + index);
+    }
+
+    @Override
+    void add(int index, long delta) {
+        long value = read(this.head + index) + delta;
+        if (value > this.limit || (value < 0 && this.width < Long.BYTES)) {
+            widen(value);
+        }
+        write(this.head + index, value);
+    }
+
+    /** Add empty intervals to both ends of storage.
+     *
+     * If intervals are added far away from filled ones, so most of storage would be empty,
+     * sparse storage is returned instead.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return this storage or sparse one.
+     */
+    @Override
+    BinStorage grow(int left, int right) {
+        int newSize = this.size + left + right;
+        if (left + right >= this.size && newSize > SparseBinStorage.MIN_SIZE
+                && (long) SparseBinStorage.blocks(this) * SparseBinStorage.BLOCK * SparseBinStorage.TO_SPARSE < newSize) {
+            return new SparseBinStorage(this).grow(left, right);
+        }
+        if (left > this.head || this.head + newSize - left > length()) {
+            int capacity = Math.max(newSize, (int) Math.min(Integer.MAX_VALUE - 8, 2L * length()));
+            CompactBinStorage grown = new CompactBinStorage(this.width, capacity, newSize);
+            int newHead = (capacity - newSize) / 2;
+            System.arraycopy(array(), this.head, grown.array(), newHead + left, this.size);
+            this.bytes = grown.bytes;
+            this.chars = grown.chars;
+            this.ints = grown.ints;
+            this.longs = grown.longs;
+            this.head = newHead;
+        } else {
+            this.head -= left;
+        }
+        this.size = newSize;
+        return this;
+    }
+
+    /** Set all counts to zero, size and width of counters are kept.
+     *
+     */
+    @Override
+    void clear() {
+        int end = this.head + this.size;
+        switch (this.width) {
+            case Byte.BYTES:
+                Arrays.fill(this.bytes, this.head, end, (byte) 0);
+                break;
+            case Character.BYTES:
+                Arrays.fill(this.chars, this.head, end, (char) 0);
+                break;
+            case Integer.BYTES:
+                Arrays.fill(this.ints, this.head, end, 0);
+                break;
+            default:
+                Arrays.fill(this.longs, this.head, end, 0);
+        }
+    }
+
+    @Override
+    BinStorage copy() {
+        CompactBinStorage copy = new CompactBinStorage(this.width, this.size, this.size);
+        System.arraycopy(array(), this.head, copy.array(), 0, this.size);
+        return copy;
+    }
+}
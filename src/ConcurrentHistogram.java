@@ -0,0 +1,419 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalIntervalBounds;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/** Thread-safe Histogram for values added from many threads.
+ *
+ * Writers do not lock: they read current state of intervals with optimistic stamp and increment
+ * atomic counters of its intervals, so they never block each other. Exclusive lock is taken only
+ * to add intervals with EXPAND. Growth moves counters to new state and seals them: moved counter
+ * is set to SEALED, so writer that incremented sealed counter knows its value was not moved and
+ * adds it again. Readers take counts directly from counters and validate the stamp, statistics are
+ * evaluated on snapshot.
+ */
+public class ConcurrentHistogram {
+
+    /** Intervals and their counters, replaced as a whole when histogram grows.
+     *
+     */
+    private static final class State {
+        final double minH; // Lower histogram boundary.
+        final double maxH; // Upper histogram boundary.
+        final BinLayout layout; // Boundaries of intervals.
+        final AtomicLongArray counts; // Counts of intervals with free space on both ends, may be shared with next state.
+        final int head; // Index of the first interval in 'counts'.
+        final int left; // Number of intervals added to the left since creation of histogram.
+        final AtomicLong onLeft; // Number of values on the left boundary of the first interval.
+
+        State(BinLayout layout, AtomicLongArray counts, int head, int left, long onLeft) {
+            this.minH = layout.floor(0);
+            this.maxH = layout.ceil(layout.bins() - 1);
+            this.layout = layout;
+            this.counts = counts;
+            this.head = head;
+            this.left = left;
+            this.onLeft = new AtomicLong(onLeft);
+        }
+    }
+
+    private static final long SEALED = Long.MIN_VALUE; // Value of counter moved to the next state.
+
+    private final StampedLock lock = new StampedLock(); // Exclusive for growth, shared for reads of stable counters.
+    private volatile State state; // Current intervals.
+
+    /** Constructor for ConcurrentHistogram.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     */
+    public ConcurrentHistogram(double minH, double maxH, int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        if (!(minH < maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        this.state = new State(new LinearLayout(minH, maxH, bins), new AtomicLongArray(bins), 0, 0, 0);
+    }
+
+    /** Add single number to Histogram
+     *
+     * @param newValue value.
+     * @param appendType
+     *         ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *         EXPAND,    // Adds bins to the histogram in order to add value.
+     *         INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addNumber(double newValue, Histogram.AppendType appendType){
+        long stamp = this.lock.tryOptimisticRead();
+        State state = this.state;
+        if (appendType == Histogram.AppendType.EXPAND && (newValue < state.minH || newValue > state.maxH)
+                && !Double.isInfinite(newValue)) {
+            expand(newValue);
+        } else if (stamp == 0 || !add(state, newValue, appendType)) {
+            stamp = this.lock.readLock();
+            try {
+                add(this.state, newValue, appendType);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /** Add array of values to histogram.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(double[] data, Histogram.AppendType appendType){
+        for (double num: data){
+            addNumber(num, appendType);
+        }
+    }
+
+    /** Add array of values to histogram.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(float[] data, Histogram.AppendType appendType){
+        for (float num: data){
+            addNumber(num, appendType);
+        }
+    }
+
+    /** Add array of values to histogram.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(int[] data, Histogram.AppendType appendType){
+        for (int num: data){
+            addNumber(num, appendType);
+        }
+    }
+
+    /** Add values from file to histogram.
+     *
+     * File is memory-mapped and whitespace separated decimal numbers are parsed without
+     * creating objects for each value.
+     *
+     * @param fileName path to file
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     * @throws UncheckedIOException if file can not be read.
+     * @throws NumberFormatException if file contains not a number.
+     */
+    public void addBatch(String fileName, Histogram.AppendType appendType){
+        try {
+            NumberFileReader.read(Paths.get(fileName), value -> addNumber(value, appendType));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read values from " + fileName + ".", e);
+        }
+    }
+
+    /** Add value to intervals of state, range is not changed.
+     *
+     * @param state state read by caller.
+     * @param value value.
+     * @param appendType append type.
+     * @return false if counter of state is already moved to the next state, then value is not counted.
+     */
+    private boolean add(State state, double value, Histogram.AppendType appendType) {
+        int index;
+        if (value >= state.minH && value <= state.maxH) {
+            index = state.layout.index(value);
+        } else if (appendType == Histogram.AppendType.ADD_TO_EDGE && value < state.minH) {
+            index = 0;
+        } else if (appendType == Histogram.AppendType.ADD_TO_EDGE && value > state.maxH) {
+            index = state.layout.bins() - 1;
+        } else {
+            return true;
+        }
+        if (index < 0) {
+            return true;
+        }
+        if (state.counts.getAndIncrement(state.head + index) < 0) {
+            return false;
+        }
+        if (index == 0 && value <= state.minH && state.onLeft.getAndIncrement() < 0) {
+            relocate(state, index, value, appendType);
+        }
+        return true;
+    }
+
+    /** Count value again in current state, if its interval was moved without mark of the left boundary.
+     *
+     * @param state state where value was counted.
+     * @param index index of interval in that state.
+     * @param value value.
+     * @param appendType append type.
+     */
+    private void relocate(State state, int index, double value, Histogram.AppendType appendType) {
+        long stamp = this.lock.readLock();
+        try {
+            State current = this.state;
+            add(current, value, appendType);
+            current.counts.getAndDecrement(current.head + index + current.left - state.left);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /** Add intervals, so histogram contains value, then add value.
+     *
+     * @param value finite value out of range.
+     */
+    private void expand(double value) {
+        long stamp = this.lock.writeLock();
+        try {
+            State state = this.state;
+            if (value < state.minH) {
+                grow(state, state.layout.addedToLeft(value), 0);
+            } else if (value > state.maxH) {
+                grow(state, 0, state.layout.addedToRight(value));
+            }
+            add(this.state, value, Histogram.AppendType.EXPAND);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Replace state with one that has more intervals, amortized O(1) per interval.
+     *
+     * Caller holds exclusive lock. Counters are reused while there is free space in 'counts',
+     * otherwise they are moved to bigger array and sealed. Values on the left boundary move to the
+     * new interval when intervals are added to the left.
+     *
+     * @param state current state.
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     */
+    private void grow(State state, int left, int right) {
+        int size = state.layout.bins();
+        if (left > BinLayout.MAX_BINS - size - right) {
+            throw new IllegalIntervalBounds("Can not expand histogram, too many intervals.");
+        }
+        int newSize = size + left + right;
+        long moved = state.onLeft.getAndSet(SEALED);
+        AtomicLongArray counts = state.counts;
+        int head = state.head - left;
+        if (left > state.head || state.head + newSize - left > counts.length()) {
+            int capacity = Math.max(newSize, (int) Math.min(Integer.MAX_VALUE - 8, 2L * counts.length()));
+            counts = new AtomicLongArray(capacity);
+            head = (capacity - newSize) / 2;
+            for (int i = 0; i < size; i++) {
+                counts.set(head + left + i, state.counts.getAndSet(state.head + i, SEALED));
+            }
+        }
+        if (left > 0) {
+            counts.addAndGet(head + left, -moved);
+            counts.addAndGet(head + left - 1, moved);
+            moved = 0;
+        }
+        this.state = new State(state.layout.grow(left, right), counts, head, state.left + left, moved);
+    }
+
+    /** Consistent copy of histogram.
+     *
+     * Writers are not stopped, so copy has all values added before the call and maybe some added during it.
+     *
+     * @return histogram with all values added before the call.
+     */
+    public Histogram snapshot() {
+        long stamp = this.lock.readLock();
+        try {
+            State state = this.state;
+            long onLeft = state.onLeft.get();
+            long[] copy = new long[state.layout.bins()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = state.counts.get(state.head + i);
+            }
+            return new Histogram(state.minH, state.maxH, state.layout, new DenseBinStorage(copy), onLeft);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /** Getter for minH.
+     *
+     * @return Lower boundary of histogram.
+     */
+    public double getMinH() {
+        return this.state.minH;
+    }
+
+    /** Getter for maxH.
+     *
+     * @return Upper boundary of histogram.
+     */
+    public double getMaxH() {
+        return this.state.maxH;
+    }
+
+    /** Getter for bins.
+     *
+     * @return number of bins.
+     */
+    public int getBins() {
+        return this.state.layout.bins();
+    }
+
+    /** Count all elements in histogram.
+     *
+     * Counters are summed without copy, they are read again under shared lock if histogram grew meanwhile.
+     *
+     * @return number of elements in histogram.
+     */
+    public long count() {
+        long stamp = this.lock.tryOptimisticRead();
+        long count = stamp != 0 ? sum(this.state) : 0;
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                count = sum(this.state);
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    /** Sum of counters of state.
+     *
+     * @param state state.
+     * @return number of elements, meaningless if state is replaced during the call.
+     */
+    private static long sum(State state) {
+        long count = 0;
+        for (int i = 0; i < state.layout.bins(); i++) {
+            count += state.counts.get(state.head + i);
+        }
+        return count;
+    }
+
+    /** Count number of elements from interval
+     *
+     * @param index index of the interval.
+     * @return number of elements.
+     */
+    public long count(int index) {
+        long stamp = this.lock.tryOptimisticRead();
+        State state = this.state;
+        long count = index >= 0 && index < state.layout.bins() ? state.counts.get(state.head + index) : 0;
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                state = this.state;
+                count = index >= 0 && index < state.layout.bins() ? state.counts.get(state.head + index) : 0;
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        if (index < 0 || index >= state.layout.bins()) {
+            throw new IndexOutOfBoundsException("Interval index out of bounds.");
+        }
+        return count;
+    }
+
+    /** Mean
+     *
+     * @return mean
+     */
+    public double mean() {
+        return snapshot().mean();
+    }
+
+    /**
+     *
+     * @return Median.
+     */
+    public double median() {
+        return snapshot().median();
+    }
+
+    /** Quantile of added values, see Histogram.quantile(double).
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile or NaN if histogram is empty.
+     */
+    public double quantile(double q) {
+        return snapshot().quantile(q);
+    }
+
+    /** Quantiles of added values from one snapshot.
+     *
+     * @param qs levels of quantiles from 0 to 1.
+     * @return quantile for every level.
+     */
+    public double[] quantiles(double... qs) {
+        return snapshot().quantiles(qs);
+    }
+
+    /**
+     *
+     * @return Standard Deviation.
+     */
+    public double std() {
+        return snapshot().std();
+    }
+
+    /** Range of histogram.
+     *
+     * @return range.
+     */
+    public double range() {
+        return snapshot().range();
+    }
+
+    /** Statistical describe of histogram.
+     *
+     * @return string.
+     */
+    public String describe() {
+        return snapshot().describe();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
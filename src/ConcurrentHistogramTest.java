@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+class ConcurrentHistogramTest {
+
+    @Test
+    void concurrentAddTest() throws InterruptedException {
+        ConcurrentHistogram histogram = new ConcurrentHistogram(0, 10, 10);
+        Thread[] threads = new Thread[8];
+        for (int t=0; t<threads.length; t++){
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i=0; i<50000; i++){
+                    histogram.addNumber(random.nextDouble() * 200 - 100, Histogram.AppendType.EXPAND);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+
+        //same values added in one thread.
+        Histogram expected = new Histogram(0, 10, 10);
+        for (int t=0; t<threads.length; t++){
+            Random random = new Random(t);
+            for (int i=0; i<50000; i++){
+                expected.addNumber(random.nextDouble() * 200 - 100, Histogram.AppendType.EXPAND);
+            }
+        }
+        Histogram snapshot = histogram.snapshot();
+        Assertions.assertEquals(400000, snapshot.count());
+        Assertions.assertEquals(expected.getBins(), snapshot.getBins());
+        Assertions.assertEquals(expected.getMinH(), snapshot.getMinH());
+        Assertions.assertEquals(expected.getMaxH(), snapshot.getMaxH());
+        for (int i=0; i<expected.getBins(); i++){
+            Assertions.assertEquals(expected.count(i), snapshot.count(i));
+        }
+    }
+
+    @Test
+    void appendTypesTest(){
+        ConcurrentHistogram histogram = new ConcurrentHistogram(0, 5, 5);
+        histogram.addBatch(new double[]{0,1,2,3,3,4,5,-1,6}, Histogram.AppendType.ADD_TO_EDGE);
+        histogram.addBatch(new int[]{-1,6}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(9, histogram.count());
+        Assertions.assertEquals(3, histogram.count(0));
+        Assertions.assertEquals(2, histogram.count(4));
+
+        //values on the left boundary move to the new interval.
+        histogram.addNumber(-0.5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(6, histogram.getBins());
+        Assertions.assertEquals(3, histogram.count(0));
+        Assertions.assertEquals(1, histogram.count(1));
+    }
+
+    @Test
+    void concurrentGrowthTest() throws InterruptedException {
+        //values on the left boundary are moved by growth, even if they are added while histogram grows.
+        ConcurrentHistogram histogram = new ConcurrentHistogram(0, 1, 1);
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++){
+            threads[t] = new Thread(() -> {
+                for (int i=0; i<100000; i++){
+                    histogram.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+                }
+            });
+            threads[t].start();
+        }
+        long previous = 0;
+        for (int i=1; i<=2000; i++){
+            histogram.addNumber(-i, Histogram.AppendType.EXPAND);
+            long count = histogram.count();
+            Assertions.assertTrue(count >= previous);
+            previous = count;
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+        Histogram snapshot = histogram.snapshot();
+        Assertions.assertEquals(2001, snapshot.getBins());
+        Assertions.assertEquals(402000, histogram.count());
+        Assertions.assertEquals(400000, histogram.count(1999));
+        Assertions.assertEquals(snapshot.count(1999), histogram.count(1999));
+        Assertions.assertEquals(2, histogram.count(0));
+        Assertions.assertEquals(0, histogram.count(2000));
+    }
+}
@@ -0,0 +1,78 @@
+/** Fenwick tree over counts of intervals.
+ *
+ * Keeps partial prefix sums, so count of interval is changed, number of values up to interval
+ * is summed and interval of value with given rank is found in O(log bins).
+ */
+class CumulativeCounts {
+    private final long[] tree; // Partial sums, element i covers (i - (i & -i); i] of 1-based intervals.
+    private final int size; // Number of intervals.
+
+    /** Constructor for CumulativeCounts.
+     *
+     * Tree is built in O(size).
+     *
+     * @param counts counts of intervals.
+     */
+    CumulativeCounts(BinStorage counts) {
+        this.size = counts.size();
+        this.tree = new long[this.size + 1];
+        for (int i = counts.next(0); i < this.size; i = counts.next(i + 1)) {
+            this.tree[i + 1] = counts.get(i);
+        }
+        for (int i = 1; i <= this.size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= this.size) {
+                this.tree[parent] += this.tree[i];
+            }
+        }
+    }
+
+    /** Add amount of values to interval.
+     *
+     * @param index index of the interval.
+     * @param delta amount of added values.
+     */
+    void add(int index, long delta) {
+        for (int i = index + 1; i <= this.size; i += i & -i) {
+            this.tree[i] += delta;
+        }
+    }
+
+    /** Number of values in intervals up to given one.
+     *
+     * @param index index of the last interval, -1 for none.
+     * @return sum of counts of intervals from 0 to index.
+     */
+    long prefix(int index) {
+        long sum = 0;
+        for (int i = index + 1; i > 0; i -= i & -i) {
+            sum += this.tree[i];
+        }
+        return sum;
+    }
+
+    /** Number of all values.
+     *
+     * @return sum of all counts.
+     */
+    long total() {
+        return prefix(this.size - 1);
+    }
+
+    /** Interval that contains value with given rank in variational series.
+     *
+     * @param rank 0-based rank.
+     * @return smallest index with prefix(index) > rank, or number of intervals if rank is not lower than total().
+     */
+    int search(long rank) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(this.size); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= this.size && this.tree[next] <= rank) {
+                position = next;
+                rank -= this.tree[next];
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,297 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalIntervalBounds;
+import exceptions.IllegalQuantile;
+import exceptions.IllegalWindowValue;
+
+import java.util.function.LongSupplier;
+
+/** Histogram where weight of values decays with age, so recent values matter more.
+ *
+ * Uses forward decay: value added at time t gets weight exp(alpha * (t - landmark)), that grows
+ * with time instead of decaying all older weights, so adding is O(1). At query time weights are
+ * divided by exp(alpha * (now - landmark)), then value of age a has weight exp(-alpha * a) and
+ * weight halves every half-life. When weights of new values grow too big, landmark is moved
+ * to current time and all weights are scaled down once, which is amortized O(1).
+ * Intervals are kept by Histogram over storage of weights, so they grow like in Histogram.
+ * Not thread-safe.
+ */
+public class DecayingHistogram {
+
+    private static final double MAX_EXPONENT = 64; // Biggest exponent of weight before renormalization.
+
+    private final Histogram histogram; // Intervals and counts of values, weights are kept by its storage.
+    private final WeightedBinStorage weights; // Weights of intervals of 'histogram'.
+    private final double[] sums = new double[Moments.MAX_DEGREE + 1]; // Sums of weight * value^k.
+    private final double alpha; // Decay rate per millisecond.
+    private final LongSupplier clock; // Current time in milliseconds.
+    private long landmark; // Time when weight of added value is 1.
+
+    /** Constructor for DecayingHistogram with system clock.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @param halfLifeMillis time in milliseconds for weight of value to halve.
+     */
+    public DecayingHistogram(double minH, double maxH, int bins, double halfLifeMillis) {
+        this(minH, maxH, bins, halfLifeMillis, System::currentTimeMillis);
+    }
+
+    /** Constructor for DecayingHistogram.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @param halfLifeMillis time in milliseconds for weight of value to halve.
+     * @param clock current time in milliseconds.
+     */
+    public DecayingHistogram(double minH, double maxH, int bins, double halfLifeMillis, LongSupplier clock) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        if (!(minH < maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        if (!(halfLifeMillis > 0)) {
+            throw new IllegalWindowValue("Half-life of weights should be positive.");
+        }
+        this.weights = new WeightedBinStorage(bins);
+        this.histogram = new Histogram(minH, maxH, new LinearLayout(minH, maxH, bins), this.weights, 0);
+        this.alpha = Math.log(2) / halfLifeMillis;
+        this.clock = clock;
+        this.landmark = clock.getAsLong();
+    }
+
+    /** Add single number with weight of current time.
+     *
+     * @param newValue value.
+     * @param appendType
+     *         ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *         EXPAND,    // Adds bins to the histogram in order to add value.
+     *         INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addNumber(double newValue, Histogram.AppendType appendType) {
+        add(newValue, appendType, addedWeight());
+    }
+
+    /** Add array of values with weight of current time.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(double[] data, Histogram.AppendType appendType) {
+        double weight = addedWeight();
+        for (double num: data) {
+            add(num, appendType, weight);
+        }
+    }
+
+    /** Forward-decay weight of value added now, renormalizes weights if it is too big.
+     *
+     * @return weight.
+     */
+    private double addedWeight() {
+        long now = this.clock.getAsLong();
+        double exponent = this.alpha * (now - this.landmark);
+        if (exponent > MAX_EXPONENT) {
+            scale(Math.exp(-exponent));
+            this.landmark = now;
+            exponent = 0;
+        }
+        return Math.exp(exponent);
+    }
+
+    /** Multiply all weights by factor.
+     *
+     * @param factor factor.
+     */
+    private void scale(double factor) {
+        this.weights.scale(factor);
+        for (int k = 0; k < this.sums.length; k++) {
+            this.sums[k] *= factor;
+        }
+    }
+
+    /** Add value with weight.
+     *
+     * @param value value.
+     * @param appendType append type.
+     * @param weight weight.
+     */
+    private void add(double value, Histogram.AppendType appendType, double weight) {
+        long count = this.histogram.count();
+        this.weights.setWeight(weight);
+        this.histogram.addNumber(value, appendType);
+        if (this.histogram.count() == count) {
+            return;
+        }
+        value = Math.max(this.histogram.getMinH(), Math.min(this.histogram.getMaxH(), value));
+        double power = weight;
+        for (int k = 0; k < this.sums.length; k++) {
+            this.sums[k] += power;
+            power *= value;
+        }
+    }
+
+    /** Factor that turns stored weights into weights decayed to current time.
+     *
+     * @return factor.
+     */
+    private double decay() {
+        return Math.exp(-this.alpha * (this.clock.getAsLong() - this.landmark));
+    }
+
+    /** Getter for minH.
+     *
+     * @return Lower boundary of histogram.
+     */
+    public double getMinH() {
+        return this.histogram.getMinH();
+    }
+
+    /** Getter for maxH.
+     *
+     * @return Upper boundary of histogram.
+     */
+    public double getMaxH() {
+        return this.histogram.getMaxH();
+    }
+
+    /** Getter for bins.
+     *
+     * @return number of bins.
+     */
+    public int getBins() {
+        return this.histogram.getBins();
+    }
+
+    /** Decayed weight of all values, effective number of recent values.
+     *
+     * @return weight.
+     */
+    public double weight() {
+        return this.sums[0] * decay();
+    }
+
+    /** Decayed weight of interval.
+     *
+     * @param index index of the interval.
+     * @return weight.
+     */
+    public double weight(int index) {
+        if (index < 0 || index >= this.histogram.getBins()) {
+            throw new IndexOutOfBoundsException("Interval index out of bounds.");
+        }
+        return this.weights.weight(index) * decay();
+    }
+
+    /** Weighted mean.
+     *
+     * @return mean.
+     */
+    public double mean() {
+        return rawMoment(1);
+    }
+
+    /**
+     *
+     * @return Standard Deviation, square root of weighted raw moment of 2-nd degree as in Histogram.
+     */
+    public double std() {
+        return Math.sqrt(rawMoment(2));
+    }
+
+    /** Weighted raw moment of n-th degree.
+     *
+     * Moments up to 4-th degree are computed from added values, higher ones from interval medians.
+     *
+     * @param n degree of moment.
+     * @return Raw moment.
+     */
+    public double rawMoment(int n) {
+        assert n > 0;
+        if (n <= Moments.MAX_DEGREE) {
+            return this.sums[n] / this.sums[0];
+        }
+        BinLayout layout = this.histogram.getLayout();
+        double sum = 0;
+        double weight = 0;
+        for (int i = 0; i < layout.bins(); i++) {
+            double w = this.weights.weight(i);
+            if (w != 0) {
+                sum += w * Math.pow(layout.midpoint(i), n);
+                weight += w;
+            }
+        }
+        return sum / weight;
+    }
+
+    /** Weighted quantile.
+     *
+     * Interval with weighted rank q * weight() is found by walk over intervals and value is
+     * linearly interpolated inside it.
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile or NaN if histogram is empty.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalQuantile("Level of quantile should be from 0 to 1.");
+        }
+        BinLayout layout = this.histogram.getLayout();
+        int bins = layout.bins();
+        double total = 0;
+        for (int i = 0; i < bins; i++) {
+            total += this.weights.weight(i);
+        }
+        if (!(total > 0)) {
+            return Double.NaN;
+        }
+        double position = q * total;
+        double before = 0;
+        int last = -1;
+        for (int i = 0; i < bins; i++) {
+            double w = this.weights.weight(i);
+            if (w <= 0) {
+                continue;
+            }
+            last = i;
+            if (before + w >= position) {
+                break;
+            }
+            before += w;
+        }
+        double fraction = (position - before) / this.weights.weight(last);
+        double floor = layout.floor(last);
+        return floor + Math.max(0, Math.min(1, fraction)) * (layout.ceil(last) - floor);
+    }
+
+    /** Weighted quantiles.
+     *
+     * @param qs levels of quantiles from 0 to 1.
+     * @return quantile for every level, see quantile(double).
+     */
+    public double[] quantiles(double... qs) {
+        double[] quantiles = new double[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            quantiles[i] = quantile(qs[i]);
+        }
+        return quantiles;
+    }
+
+    @Override
+    public String toString() {
+        double decay = decay();
+        BinLayout layout = this.histogram.getLayout();
+        StringBuilder sb = new StringBuilder("DecayingHistogram:\n");
+        for (int i = 0; i < layout.bins(); i++) {
+            sb.append(i == 0 ? " [" : " (");
+            sb.append(layout.floor(i)).append("; ").append(layout.ceil(i)).append("]: ");
+            sb.append(this.weights.weight(i) * decay).append('\n');
+        }
+        return sb.toString();
+    }
+}
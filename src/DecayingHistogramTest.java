@@ -0,0 +1,68 @@
+import exceptions.IllegalQuantile;
+import exceptions.IllegalWindowValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class DecayingHistogramTest {
+
+    private long now; // Time of test clock.
+
+    @Test
+    void decayTest(){
+        DecayingHistogram histogram = new DecayingHistogram(0, 10, 10, 1000, () -> now);
+        histogram.addNumber(1.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(1, histogram.weight(), 1e-12);
+
+        //weight halves every half-life, recent values matter more.
+        now = 1000;
+        Assertions.assertEquals(0.5, histogram.weight(), 1e-12);
+        histogram.addNumber(3.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(1.5, histogram.weight(), 1e-12);
+        Assertions.assertEquals(0.5, histogram.weight(1), 1e-12);
+        Assertions.assertEquals(1, histogram.weight(3), 1e-12);
+        Assertions.assertEquals(8.5 / 3, histogram.mean(), 1e-12);
+        Assertions.assertEquals(Math.sqrt(13.375 / 1.5), histogram.std(), 1e-12);
+        Assertions.assertEquals(3.25, histogram.quantile(0.5), 1e-12);
+        Assertions.assertArrayEquals(new double[]{1, 4}, histogram.quantiles(0, 1), 1e-12);
+        now = 2000;
+        Assertions.assertEquals(8.5 / 3, histogram.mean(), 1e-12);
+        Assertions.assertEquals(0.75, histogram.weight(), 1e-12);
+
+        //weights are renormalized when they grow too big, old values vanish.
+        now = 100000;
+        histogram.addNumber(5.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(1, histogram.weight(), 1e-12);
+        Assertions.assertEquals(5.5, histogram.mean(), 1e-12);
+        now = Long.MAX_VALUE / 2;
+        histogram.addNumber(7.5, Histogram.AppendType.ADD_TO_EDGE);
+        Assertions.assertEquals(1, histogram.weight(), 1e-12);
+        Assertions.assertEquals(7.5, histogram.mean(), 1e-12);
+        Assertions.assertEquals(7.5, histogram.quantile(0.5), 1e-12);
+
+        //expanding keeps weights of intervals.
+        histogram.addBatch(new double[]{-2.5, 12, Double.POSITIVE_INFINITY}, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(-3, histogram.getMinH(), 1e-12);
+        Assertions.assertEquals(12, histogram.getMaxH(), 1e-12);
+        Assertions.assertEquals(15, histogram.getBins());
+        Assertions.assertEquals(1, histogram.weight(0), 1e-12);
+        Assertions.assertEquals(1, histogram.weight(10), 1e-12);
+        Assertions.assertEquals(1, histogram.weight(14), 1e-12);
+        Assertions.assertEquals(3, histogram.weight(), 1e-12);
+
+        //weight on the left boundary moves to added interval.
+        now = 0;
+        DecayingHistogram left = new DecayingHistogram(0, 10, 10, 1000, () -> now);
+        left.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+        left.addNumber(0.5, Histogram.AppendType.INTERVAL_ONLY);
+        now = 1000;
+        left.addNumber(-0.5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(11, left.getBins());
+        Assertions.assertEquals(1.5, left.weight(0), 1e-12);
+        Assertions.assertEquals(0.5, left.weight(1), 1e-12);
+        Assertions.assertEquals(-0.125, left.mean(), 1e-12);
+
+        Assertions.assertThrows(IllegalQuantile.class, () -> histogram.quantile(2));
+        Assertions.assertTrue(Double.isNaN(new DecayingHistogram(0, 1, 1, 1).quantile(0.5)));
+        Assertions.assertThrows(IllegalWindowValue.class, () -> new DecayingHistogram(0, 10, 10, 0));
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/** BinStorage backed by flat long array.
+ *
+ * Array keeps free space on both ends, so intervals can be added to the left
+ * as cheap as to the right: growing is amortized O(1) per interval.
+ */
+class DenseBinStorage extends BinStorage {
+    private long[] counts; // counts with free space on both ends
+    private int head; // index of the first interval in 'counts'
+    private int size; // number of intervals
+
+    /** Constructor for DenseBinStorage.
+     *
+     * @param size number of empty intervals.
+     */
+    DenseBinStorage(int size) {
+        this.counts = new long[size];
+        this.head = 0;
+        this.size = size;
+    }
+
+    /** Constructor for DenseBinStorage over existing counts.
+     *
+     * @param counts counts of intervals, array is used without copying.
+     */
+    DenseBinStorage(long[] counts) {
+        this.counts = counts;
+        this.head = 0;
+        this.size = counts.length;
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    @Override
+    long get(int index) {
+        return this.counts[this.head + index];
+    }
+
+    @Override
+    void add(int index, long delta) {
+        this.counts[this.head + index] += delta;
+    }
+
+    @Override
+    void increment(int[] indices, int length) {
+        long[] counts = this.counts;
+        int head = this.head;
+        for (int i = 0; i < length; i++) {
+            counts[head + indices[i]]++;
+        }
+    }
+
+    @Override
+    int next(int index) {
+        long[] counts = this.counts;
+        int i = this.head + index;
+        int end = this.head + this.size;
+        while (i < end && counts[i] == 0) {
+            i++;
+        }
+        return i - this.head;
+    }
+
+    /** Add empty intervals to both ends of storage.
+     *
+     * If intervals are added far away from filled ones, so most of storage would be empty,
+     * sparse storage is returned instead.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return this storage or sparse one.
+     */
+    @Override
+    BinStorage grow(int left, int right) {
+        int newSize = this.size + left + right;
+        if (left + right >= this.size && newSize > SparseBinStorage.MIN_SIZE
+                && (long) SparseBinStorage.blocks(this) * SparseBinStorage.BLOCK * SparseBinStorage.TO_SPARSE < newSize) {
+            return new SparseBinStorage(this).grow(left, right);
+        }
+        if (left > this.head || this.head + newSize - left > this.counts.length) {
+            int capacity = Math.max(newSize, (int) Math.min(Integer.MAX_VALUE - 8, 2L * this.counts.length));
+            long[] newCounts = new long[capacity];
+            int newHead = (capacity - newSize) / 2;
+            System.arraycopy(this.counts, this.head, newCounts, newHead + left, this.size);
+            this.counts = newCounts;
+            this.head = newHead;
+        } else {
+            this.head -= left;
+        }
+        this.size = newSize;
+        return this;
+    }
+
+    @Override
+    void clear() {
+        Arrays.fill(this.counts, this.head, this.head + this.size, 0);
+    }
+
+    @Override
+    BinStorage copy() {
+        long[] copy = new long[this.size];
+        System.arraycopy(this.counts, this.head, copy, 0, this.size);
+        return new DenseBinStorage(copy);
+    }
+
+    @Override
+    long total() {
+        long sum = 0;
+        for (int i = this.head; i < this.head + this.size; i++) {
+            sum += this.counts[i];
+        }
+        return sum;
+    }
+}
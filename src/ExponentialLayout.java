@@ -0,0 +1,145 @@
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalIntervalBounds;
+
+import java.nio.ByteBuffer;
+
+/** Boundaries of intervals of Histogram, growing in geometric progression.
+ *
+ * Interval i is (origin * base^(i - shift); origin * base^(i + 1 - shift)], so every interval
+ * has the same relative width. Suits positive values of high dynamic range, like latencies.
+ */
+class ExponentialLayout extends BinLayout {
+    private final double origin; // Lower boundary at the moment intervals were generated.
+    private final double base; // Ratio of ceil to floor of every interval.
+    private final double logBase; // Natural logarithm of base.
+    private final int shift; // Number of intervals added to the left of 'origin'.
+
+    /** Constructor for ExponentialLayout.
+     *
+     * @param minH lower boundary, positive.
+     * @param maxH upper boundary.
+     * @param bins number of intervals.
+     */
+    ExponentialLayout(double minH, double maxH, int bins) {
+        this(minH, Math.pow(maxH / minH, 1.0 / bins), 0, bins);
+        if (!(minH > 0) || !(this.base > 1) || Double.isInfinite(this.base)) {
+            throw new IllegalIntervalBounds("Exponential intervals need positive 'floor' and finite 'ceil'.");
+        }
+    }
+
+    private ExponentialLayout(double origin, double base, int shift, int bins) {
+        super(bins);
+        this.origin = origin;
+        this.base = base;
+        this.logBase = Math.log(base);
+        this.shift = shift;
+    }
+
+    @Override
+    double floor(int index) {
+        return this.origin * Math.pow(this.base, index - this.shift);
+    }
+
+    /** Index of the interval that contains value.
+     *
+     * Guess is computed directly from log(value / origin) / log(base).
+     *
+     * @param value value to look up.
+     * @return index of interval or -1 if no interval contains value.
+     */
+    @Override
+    int index(double value) {
+        if (!(value > 0)) {
+            return -1;
+        }
+        return locate(value, Math.log(value / this.origin) / this.logBase + this.shift);
+    }
+
+    @Override
+    int addedToLeft(double value) {
+        if (!(value > 0)) {
+            throw new IllegalIntervalBounds("Exponential intervals can not contain zero or negative values.");
+        }
+        double estimate = Math.max(1, Math.ceil(Math.log(floor(0) / value) / this.logBase));
+        if (!(estimate <= MAX_BINS - bins())) {
+            return Integer.MAX_VALUE;
+        }
+        int added = (int) estimate;
+        while (floor(-added) > value) {
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    int addedToRight(double value) {
+        double estimate = Math.max(1, Math.ceil(Math.log(value / ceil(bins() - 1)) / this.logBase));
+        if (!(estimate <= MAX_BINS - bins())) {
+            return Integer.MAX_VALUE;
+        }
+        int added = (int) estimate;
+        while (ceil(bins() - 1 + added) < value) {
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    int alignedOffset(BinLayout layout) {
+        if (!(layout instanceof ExponentialLayout)) {
+            return Integer.MIN_VALUE;
+        }
+        ExponentialLayout other = (ExponentialLayout) layout;
+        if (this.origin == other.origin && this.base == other.base) {
+            return this.shift - other.shift;
+        }
+        if (Math.abs(this.logBase - other.logBase) > this.logBase * 1e-9) {
+            return Integer.MIN_VALUE;
+        }
+        double offset = Math.log(other.floor(0) / floor(0)) / this.logBase;
+        long rounded = Math.round(offset);
+        if (Math.abs(offset - rounded) > 1e-6 || Math.abs(rounded) > Integer.MAX_VALUE / 2) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) rounded;
+    }
+
+    @Override
+    BinLayout grow(int left, int right) {
+        return new ExponentialLayout(this.origin, this.base, this.shift + left, bins() + left + right);
+    }
+
+    @Override
+    BinLayout resized(double minH, double maxH, int bins) {
+        return new ExponentialLayout(minH, maxH, bins);
+    }
+
+    @Override
+    int encodedSize() {
+        return 1 + 2 * Double.BYTES + VarInts.size(this.shift);
+    }
+
+    @Override
+    void encode(ByteBuffer buffer) {
+        buffer.put(EXPONENTIAL);
+        buffer.putDouble(this.origin);
+        buffer.putDouble(this.base);
+        VarInts.put(buffer, this.shift);
+    }
+
+    /** Read parameters written by encode().
+     *
+     * @param buffer buffer after layout type.
+     * @param bins number of intervals.
+     * @return layout.
+     */
+    static ExponentialLayout decode(ByteBuffer buffer, int bins) {
+        double origin = buffer.getDouble();
+        double base = buffer.getDouble();
+        long shift = VarInts.get(buffer);
+        if (!(origin > 0) || Double.isInfinite(origin) || !(base > 1) || Double.isInfinite(base) || shift > Integer.MAX_VALUE) {
+            throw new IllegalHistogramEncoding("Invalid layout of encoded histogram.");
+        }
+        return new ExponentialLayout(origin, base, (int) shift, bins);
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveTask;
+
+/** Fork/join task that reads part of file into partial histogram.
+ *
+ * Part is split in halves at whitespace until it is not bigger than chunk size, every chunk
+ * is read into empty copy of template histogram and partial histograms are merged back and closed,
+ * so off-heap partials return their memory. Clamped and dropped values of partials are counted
+ * and summed the same way, so they can be reported once after the whole file is read.
+ */
+class FileChunkTask extends RecursiveTask<Histogram> {
+    private static final int SCAN_BUFFER = 4096; // Bytes read at once when looking for whitespace.
+
+    private final FileChannel channel; // Channel of the whole file.
+    private final long start; // First byte of part.
+    private final long end; // Byte after part.
+    private final long chunkSize; // Maximal size of part read by one task.
+    private final Histogram template; // Histogram with intervals for partial histograms.
+    private final Histogram.AppendType appendType; // Append type for values.
+    private final Events events = new Events(); // Clamped and dropped values of this part.
+
+    /** Constructor for FileChunkTask.
+     *
+     * @param channel channel of the whole file.
+     * @param start first byte of part, should be start of file or whitespace.
+     * @param end byte after part, should be end of file or whitespace.
+     * @param chunkSize maximal size of part read by one task.
+     * @param template histogram with intervals for partial histograms, is not changed.
+     * @param appendType append type for values.
+     */
+    FileChunkTask(FileChannel channel, long start, long end, long chunkSize,
+                  Histogram template, Histogram.AppendType appendType) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.chunkSize = chunkSize;
+        this.template = template;
+        this.appendType = appendType;
+    }
+
+    @Override
+    protected Histogram compute() {
+        try {
+            if (this.end - this.start > this.chunkSize) {
+                long middle = nextWhitespace(this.start + (this.end - this.start) / 2);
+                if (middle < this.end) {
+                    FileChunkTask left = new FileChunkTask(this.channel, this.start, middle, this.chunkSize,
+                            this.template, this.appendType);
+                    FileChunkTask right = new FileChunkTask(this.channel, middle, this.end, this.chunkSize,
+                            this.template, this.appendType);
+                    right.fork();
+                    Histogram result;
+                    try {
+                        result = left.compute();
+                    } catch (RuntimeException e) {
+                        try {
+                            right.join().close();
+                        } catch (RuntimeException suppressed) {
+                            e.addSuppressed(suppressed);
+                        }
+                        throw e;
+                    }
+                    Histogram other = null;
+                    boolean merged = false;
+                    try {
+                        other = right.join();
+                        result.merge(other);
+                        merged = true;
+                    } finally {
+                        if (other != null) {
+                            other.close();
+                        }
+                        if (!merged) {
+                            result.close();
+                        }
+                    }
+                    this.events.add(left.events);
+                    this.events.add(right.events);
+                    return result;
+                }
+            }
+            Histogram partial = this.template.emptyCopy();
+            partial.setListener(this.events);
+            try {
+                NumberFileReader.read(this.channel, this.start, this.end,
+                        value -> partial.addNumber(value, this.appendType));
+            } catch (IOException | RuntimeException e) {
+                partial.close();
+                throw e;
+            }
+            return partial;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Report clamped and dropped values of the whole part, after task is done.
+     *
+     * @param listener receiver of events.
+     */
+    void report(HistogramListener listener) {
+        if (this.events.clamped != 0) {
+            listener.valuesClamped(this.events.clamped);
+        }
+        if (this.events.dropped != 0) {
+            listener.valuesDropped(this.events.dropped);
+        }
+    }
+
+    /** Position of the first whitespace at or after position.
+     *
+     * @param position position in file.
+     * @return position of whitespace or end of part.
+     * @throws IOException if file can not be read.
+     */
+    private long nextWhitespace(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+        while (position < this.end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(SCAN_BUFFER, this.end - position));
+            int read = this.channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (NumberFileReader.isWhitespace(buffer.get(i))) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return this.end;
+    }
+
+    /** Counter of clamped and dropped values of partial histogram.
+     *
+     */
+    private static final class Events implements HistogramListener {
+        private long clamped; // Number of values added to edge intervals.
+        private long dropped; // Number of values not counted.
+
+        @Override
+        public void valuesClamped(long count) {
+            this.clamped += count;
+        }
+
+        @Override
+        public void valuesDropped(long count) {
+            this.dropped += count;
+        }
+
+        /** Add counts of other part.
+         *
+         * @param other counts of other part.
+         */
+        void add(Events other) {
+            this.clamped += other.clamped;
+            this.dropped += other.dropped;
+        }
+    }
+}
@@ -1,9 +1,19 @@
 import exceptions.HistogramBoundariesRedefinition;
 import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalIntervalBounds;
+import exceptions.IllegalQuantile;
+import exceptions.IncompatibleHistograms;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /** Class for storing and evaluating statistical information about data.
  *
@@ -19,10 +29,24 @@ public class Histogram {
         INTERVAL_ONLY, // Values from interval only added.
     }
 
+    private static final int ENCODING_MAGIC = 0x48495354; // First bytes of encoded histogram.
+    private static final byte ENCODING_VERSION = 2; // Version of encoding, version 1 has linear intervals only.
+    private static final byte EXACT_MOMENTS = 1; // Encoding flag for exact moments.
+    private static final long PARALLEL_CHUNK = 32 << 20; // Bytes of file read by one task.
+    private static final int BATCH_BLOCK = 1024; // Values counted at once by addBatch.
+
     private double minH; // Lower histogram boundary.
     private double maxH; // Upper histogram boundary.
     private int bins; // Number of bins in histogram.
-    private ArrayList<Interval> intervals; // Array of intervals.
+    private BinLayout layout; // Boundaries of intervals.
+    private BinStorage counts; // Counts of intervals.
+    private long onLeft; // Number of values on the left boundary of the first interval.
+    private BinStorage.Kind storage = BinStorage.Kind.DENSE; // Kind of storage of counts.
+    private Moments moments; // Exact moments of added values, null if moments are approximated from intervals.
+    private CumulativeCounts cumulative; // Prefix sums of counts, built by the first rank query, null if not built.
+    private long total; // Number of values in all intervals.
+    private final StatisticsCache statistics = new StatisticsCache(); // Statistics over intervals, cleared on every change.
+    private HistogramListener listener; // Receiver of events, null if monitoring is disabled.
 
     /** Constructor for Histogram.
      *
@@ -33,23 +57,165 @@ public class Histogram {
     public Histogram(double minH, double maxH, int bins) {
         this.minH = minH;
         this.maxH = maxH;
-        this.bins = bins;
         if (bins<=0){
             throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
         }
-        generateIntervals();
+        generateIntervals(new LinearLayout(minH, maxH, bins));
     }
 
-    /** Generate 'bins' intervals from 'minH' to 'maxH'
+    /** Constructor for Histogram.
      *
+     * @param minH Lower histogram boundary.
+     * @param maxH histogram boundary.
+     * @param bins umber of bins in histogram.
+     * @param exactMoments if true, moments up to 4-th degree are computed from added values,
+     *                     not from interval medians.
      */
-    private void generateIntervals(){
-        this.intervals = new ArrayList<>();
-        for (int i=0; i<this.bins; i++) {
-            this.intervals.add(new Interval(this.minH + (this.maxH - this.minH) / this.bins * i,
-                                             this.minH + (this.maxH - this.minH) / this.bins * (i+1)));
+    public Histogram(double minH, double maxH, int bins, boolean exactMoments) {
+        this(minH, maxH, bins);
+        if (exactMoments) {
+            this.moments = new Moments();
         }
-        this.intervals.get(0).makeFirst();
+    }
+
+    /** Constructor for Histogram with intervals of given layout.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout boundaries of intervals, may be wider than minH and maxH.
+     */
+    private Histogram(double minH, double maxH, BinLayout layout) {
+        this(minH, maxH, layout, BinStorage.Kind.DENSE);
+    }
+
+    /** Constructor for Histogram with intervals of given layout and storage.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout boundaries of intervals, may be wider than minH and maxH.
+     * @param storage kind of storage of counts.
+     */
+    Histogram(double minH, double maxH, BinLayout layout, BinStorage.Kind storage) {
+        this.minH = minH;
+        this.maxH = maxH;
+        this.storage = storage;
+        generateIntervals(layout);
+    }
+
+    /** Histogram with intervals of the same relative width.
+     *
+     * Interval i is (minH * base^i; minH * base^(i + 1)], where base = (maxH / minH)^(1 / bins).
+     * Suits positive values of high dynamic range, like latencies.
+     *
+     * @param minH Lower histogram boundary, positive.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @return empty histogram.
+     */
+    public static Histogram exponential(double minH, double maxH, int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        return new Histogram(minH, maxH, new ExponentialLayout(minH, maxH, bins));
+    }
+
+    /** Histogram with log-linear intervals.
+     *
+     * Every power of two is split into equal intervals, so every value is kept with given number
+     * of significant digits. Boundaries are rounded outwards to edges of intervals and number of bins
+     * is defined by them. Suits positive values of high dynamic range, like latencies.
+     *
+     * @param minH Lower histogram boundary, positive.
+     * @param maxH Upper histogram boundary.
+     * @param significantDigits Number of significant digits, from 0 to 6.
+     * @return empty histogram.
+     */
+    public static Histogram logLinear(double minH, double maxH, int significantDigits) {
+        return new Histogram(minH, maxH, new LogLinearLayout(minH, maxH, significantDigits));
+    }
+
+    /** Histogram with compact counters.
+     *
+     * Counters of intervals start as bytes and are widened to 16, 32 and 64 bits on overflow,
+     * so histograms with few values take little memory. Counts are exact in any case.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @return empty histogram.
+     */
+    public static Histogram compact(double minH, double maxH, int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        return new Histogram(minH, maxH, new LinearLayout(minH, maxH, bins), BinStorage.Kind.COMPACT);
+    }
+
+    /** Histogram with counts outside of Java heap.
+     *
+     * Counts are kept in direct memory, so heap holds only small objects. Histogram should be
+     * closed when it is not needed, it frees the memory at once and can not be used after that.
+     * Prefix sums for quantiles are still built on heap by the first rank query.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @return empty histogram.
+     */
+    public static OffHeapHistogram offHeap(double minH, double maxH, int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        return new OffHeapHistogram(minH, maxH, new LinearLayout(minH, maxH, bins));
+    }
+
+    /** Constructor for Histogram over existing intervals.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout boundaries of intervals.
+     * @param counts counts of intervals.
+     * @param onLeft number of values on the left boundary of the first interval.
+     */
+    Histogram(double minH, double maxH, BinLayout layout, BinStorage counts, long onLeft) {
+        this.minH = minH;
+        this.maxH = maxH;
+        this.bins = layout.bins();
+        this.layout = layout;
+        this.counts = counts;
+        this.onLeft = onLeft;
+        this.total = counts.total();
+    }
+
+    /** Generate empty intervals of layout from 'minH' to 'maxH'
+     *
+     * Boundaries are widened if layout does not end exactly on them.
+     *
+     * @param layout new layout.
+     */
+    private void generateIntervals(BinLayout layout){
+        if (!(this.minH < this.maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        this.layout = layout;
+        this.bins = layout.bins();
+        this.minH = Math.min(this.minH, layout.floor(0));
+        this.maxH = Math.max(this.maxH, layout.ceil(this.bins - 1));
+        if (this.counts != null) {
+            this.counts.close();
+        }
+        this.counts = BinStorage.create(this.bins, this.storage);
+        this.onLeft = 0;
+        this.total = 0;
+        reshaped();
+    }
+
+    /** Drop prefix sums and cached statistics after counts or intervals were changed in bulk.
+     *
+     */
+    private void reshaped() {
+        this.cumulative = null;
+        this.statistics.clear();
     }
 
     /** Add intervals until it contains value.
@@ -58,54 +224,375 @@ public class Histogram {
      * @param toLeft add interval to left or to right.
      */
     private void addIntervals(double addValue, boolean toLeft){
-        double step = this.intervals.get(0).getSize();
-        Interval newI;
+        int added = toLeft ? this.layout.addedToLeft(addValue) : this.layout.addedToRight(addValue);
+        if (added > BinLayout.MAX_BINS - this.bins) {
+            throw new IllegalIntervalBounds("Can not expand histogram to " + addValue + ", too many intervals.");
+        }
         if (toLeft){
-            do {
-                newI = new Interval(this.intervals.get(0).getFloor() - step, this.intervals.get(0).getFloor());
-                newI.makeFirst();
-                newI.setCount(this.intervals.get(0).getOnLeft());
-                this.intervals.get(0).undoFirst();
-                this.intervals.add(0, newI);
-                this.bins++;
-            } while (!newI.contains(addValue));
-            this.minH = this.intervals.get(0).getFloor();
+            growLeft(added);
         } else {
-            do {
-                newI = new Interval(this.intervals.get(this.bins-1).getCeil(),
-                                        this.intervals.get(this.bins-1).getCeil() + step);
-                this.intervals.add(newI);
-                this.bins++;
-            } while (!newI.contains(addValue));
-            this.maxH = this.intervals.get(this.bins-1).getCeil();
+            growRight(added);
+        }
+    }
+
+    /** Add empty intervals before the first one.
+     *
+     * Values from the left boundary of the old first interval move to the new interval before it.
+     *
+     * @param added number of added intervals.
+     */
+    private void growLeft(int added) {
+        this.counts = this.counts.grow(added, 0);
+        reshaped();
+        this.counts.moveOnLeft(added, this.onLeft);
+        this.onLeft = 0;
+        this.layout = this.layout.grow(added, 0);
+        this.bins += added;
+        this.minH = this.layout.floor(0);
+        if (this.listener != null) {
+            this.listener.binsAdded(added);
+        }
+    }
+
+    /** Add empty intervals after the last one.
+     *
+     * @param added number of added intervals.
+     */
+    private void growRight(int added) {
+        this.counts = this.counts.grow(0, added);
+        reshaped();
+        this.layout = this.layout.grow(0, added);
+        this.bins += added;
+        this.maxH = this.layout.ceil(this.bins - 1);
+        if (this.listener != null) {
+            this.listener.binsAdded(added);
         }
     }
 
     /** Changes number of bins and saves Histogram structure.
      *
+     * Count of every old interval is split between new intervals in proportion to their overlap,
+     * values on the left boundary stay there. See setBins(int) for error of split counts.
+     *
+     * @param bins new number of intervals.
      */
-    private void updateIntervals(){
-        Queue<Interval> oldIntervals = new LinkedList<>(this.intervals);
-        generateIntervals();
-        Queue <Interval> newIntervals = new LinkedList<>(this.intervals);
-
-        Interval biggerInt;
-        Interval smallerInt;
-        if (oldIntervals.size()>newIntervals.size()){
-            while (!newIntervals.isEmpty()) {
-                biggerInt = newIntervals.remove();
-                while (!oldIntervals.isEmpty()) {
-                    smallerInt = oldIntervals.peek();
-                    if (biggerInt.contains(smallerInt)){
-                        oldIntervals.remove();
-                        biggerInt.addElements(smallerInt.getCount());
-                    } else {
-                        break;
-                    }
-                }
+    private void updateIntervals(int bins){
+        if (this.bins == bins) {
+            return;
+        }
+        int oldBins = this.bins;
+        BinLayout oldLayout = this.layout;
+        BinStorage oldCounts = this.counts;
+        long oldOnLeft = this.onLeft;
+        long oldTotal = this.total;
+
+        BinLayout layout = oldLayout.resized(this.minH, this.maxH, bins);
+        this.counts = null;
+        generateIntervals(layout);
+        this.onLeft = oldOnLeft;
+        this.total = oldTotal;
+        for (int i = oldCounts.next(0); i < oldBins; i = oldCounts.next(i + 1)) {
+            long count = oldCounts.get(i);
+            if (i == 0 && oldOnLeft != 0) {
+                this.counts.add(0, oldOnLeft);
+                count -= oldOnLeft;
             }
+            if (count != 0) {
+                spread(Math.max(this.minH, oldLayout.floor(i)), Math.min(this.maxH, oldLayout.ceil(i)), count);
+            }
+        }
+        oldCounts.close();
+        this.counts = this.counts.adapted();
+        if (this.listener != null) {
+            this.listener.rebinned(oldBins, bins);
+        }
+    }
+
+    /** Add value to interval.
+     *
+     * @param index index of the interval.
+     * @param value added value.
+     */
+    private void record(int index, double value) {
+        this.counts.add(index, 1);
+        this.counts = this.counts.adapted();
+        this.total++;
+        this.statistics.clear();
+        if (this.cumulative != null) {
+            this.cumulative.add(index, 1);
+        }
+        if (index == 0 && value == this.minH) {
+            this.onLeft++;
+            this.counts.addOnLeft(1);
+        }
+        if (this.moments != null) {
+            this.moments.add(value);
+        }
+    }
+
+    /** Copy of histogram.
+     *
+     * @return histogram with same intervals and values.
+     */
+    Histogram copy() {
+        Histogram copy = new Histogram(this.minH, this.maxH, this.layout, this.counts.copy(), this.onLeft);
+        copy.storage = this.storage;
+        if (this.moments != null) {
+            copy.moments = this.moments.copy();
+        }
+        return copy;
+    }
+
+    /** Remove all values, intervals are kept and no memory is allocated.
+     *
+     */
+    void clear() {
+        this.counts.clear();
+        this.onLeft = 0;
+        this.total = 0;
+        if (this.moments != null) {
+            this.moments.clear();
+        }
+        reshaped();
+    }
+
+    /** Release storage of counts.
+     *
+     * Only histograms with counts outside of Java heap need it, they can not be used after that.
+     * Off-heap histograms given to users close it with OffHeapHistogram, partial and replaced
+     * histograms are closed here.
+     */
+    void close() {
+        this.counts.close();
+        reshaped();
+    }
+
+    /** Empty histogram with same intervals.
+     *
+     * @return histogram without values, with exact moments if this one has them.
+     */
+    Histogram emptyCopy() {
+        Histogram copy = new Histogram(this.minH, this.maxH, this.layout, BinStorage.create(this.bins, this.storage), 0);
+        copy.storage = this.storage;
+        if (this.moments != null) {
+            copy.moments = new Moments();
+        }
+        return copy;
+    }
+
+    /** Add all values of other histogram.
+     *
+     * Range is expanded to contain values of other histogram. If intervals of histograms coincide,
+     * counts are added exactly. Otherwise count of every other interval is split between intervals
+     * of this histogram in proportion to their overlap, so each interval gets at most one value
+     * more or less than its exact share and total count is kept. Exact moments are kept only
+     * if both histograms have them.
+     *
+     * @param other other histogram.
+     */
+    public void merge(Histogram other) {
+        int offset = this.layout.alignedOffset(other.layout);
+        if (offset != Integer.MIN_VALUE) {
+            addAligned(other, offset);
         } else {
-            throw new IllegalBinsValue("Can not reduce interval size after adding values.");
+            addRebinned(other);
+        }
+        this.counts = this.counts.adapted();
+        this.total += other.total;
+        reshaped();
+        mergeMoments(other);
+    }
+
+    /** Merge many histograms into new one.
+     *
+     * Range of result is expanded once for all histograms with coinciding intervals,
+     * so merging is linear in total number of intervals.
+     *
+     * @param histograms histograms to merge, intervals of the first one are used for result.
+     * @return merged histogram.
+     */
+    public static Histogram merge(Collection<Histogram> histograms) {
+        Iterator<Histogram> iterator = histograms.iterator();
+        if (!iterator.hasNext()) {
+            throw new IncompatibleHistograms("Can not merge empty collection of histograms.");
+        }
+        Histogram result = iterator.next().copy();
+        int left = 0;
+        int right = result.bins;
+        for (Histogram histogram : histograms) {
+            int offset = result.layout.alignedOffset(histogram.layout);
+            if (offset != Integer.MIN_VALUE) {
+                left = Math.min(left, offset);
+                right = Math.max(right, offset + histogram.bins);
+            }
+        }
+        int bins = result.bins;
+        if (left < 0) {
+            result.growLeft(-left);
+        }
+        if (right > bins) {
+            result.growRight(right - bins);
+        }
+        while (iterator.hasNext()) {
+            result.merge(iterator.next());
+        }
+        return result;
+    }
+
+    /** Remove values of other histogram, that were added before.
+     *
+     * Intervals of histograms should coincide and this histogram should contain all values
+     * of the other one, otherwise nothing is changed.
+     *
+     * @param other other histogram.
+     */
+    public void subtract(Histogram other) {
+        int offset = this.layout.alignedOffset(other.layout);
+        if (offset == Integer.MIN_VALUE) {
+            throw new IncompatibleHistograms("Can not subtract histogram with different intervals.");
+        }
+        for (int i = other.counts.next(0); i < other.bins; i = other.counts.next(i + 1)) {
+            long count = other.counts.get(i) - (i == 0 ? other.onLeft : 0);
+            long left = i == 0 ? other.onLeft : 0;
+            if (count == 0 && left == 0) {
+                continue;
+            }
+            int index = offset + i;
+            boolean contains = index >= 0 && index < this.bins && this.counts.get(index) >= count;
+            if (left != 0) {
+                if (index == 0) {
+                    contains = contains && this.onLeft >= left && this.counts.get(0) >= count + left;
+                } else {
+                    contains = contains && this.counts.get(index - 1) >= left;
+                }
+            }
+            if (!contains) {
+                throw new IncompatibleHistograms("Can not subtract values which histogram does not contain.");
+            }
+        }
+        for (int i = other.counts.next(0); i < other.bins; i = other.counts.next(i + 1)) {
+            this.counts.add(offset + i, -other.counts.get(i));
+        }
+        this.total -= other.total;
+        reshaped();
+        if (offset == 0) {
+            this.onLeft -= other.onLeft;
+        } else if (other.onLeft != 0) {
+            this.counts.add(offset, other.onLeft);
+            this.counts.add(offset - 1, -other.onLeft);
+        }
+        if (this.moments != null) {
+            if (other.moments != null) {
+                this.moments.subtract(other.moments);
+            } else {
+                this.moments = null;
+            }
+        }
+    }
+
+    /** Add counts of other histogram with coinciding intervals.
+     *
+     * @param other other histogram.
+     * @param offset index of the first other interval in this histogram.
+     */
+    private void addAligned(Histogram other, int offset) {
+        if (offset < 0) {
+            growLeft(-offset);
+            offset = 0;
+        }
+        if (offset + other.bins > this.bins) {
+            growRight(offset + other.bins - this.bins);
+        }
+        for (int i = other.counts.next(0); i < other.bins; i = other.counts.next(i + 1)) {
+            this.counts.add(offset + i, other.counts.get(i));
+        }
+        if (offset == 0) {
+            this.onLeft += other.onLeft;
+        } else if (other.onLeft != 0) {
+            this.counts.add(offset, -other.onLeft);
+            this.counts.add(offset - 1, other.onLeft);
+        }
+    }
+
+    /** Add counts of other histogram with different intervals.
+     *
+     * @param other other histogram.
+     */
+    private void addRebinned(Histogram other) {
+        int first = other.counts.next(0);
+        if (first == other.bins) {
+            return;
+        }
+        int last = first;
+        for (int i = first; i < other.bins; i = other.counts.next(i + 1)) {
+            last = i;
+        }
+        double floor = other.layout.floor(first);
+        double ceil = other.layout.ceil(last);
+        if (floor < this.minH) {
+            addIntervals(floor, true);
+        }
+        if (ceil > this.maxH) {
+            addIntervals(ceil, false);
+        }
+        for (int i = first; i <= last; i = other.counts.next(i + 1)) {
+            long count = other.counts.get(i);
+            if (i == 0 && other.onLeft != 0) {
+                int index = clampedIndex(other.minH);
+                this.counts.add(index, other.onLeft);
+                if (index == 0 && other.minH == this.minH) {
+                    this.onLeft += other.onLeft;
+                }
+                count -= other.onLeft;
+            }
+            if (count != 0) {
+                spread(other.layout.floor(i), other.layout.ceil(i), count);
+            }
+        }
+    }
+
+    /** Split count between intervals in proportion to their overlap with (floor; ceil].
+     *
+     * Cumulative shares are rounded, so every interval gets at most one value more or less
+     * than its exact share and sum of parts is equal to count.
+     *
+     * @param floor lower boundary of split interval, not lower than minH.
+     * @param ceil upper boundary of split interval, not bigger than maxH.
+     * @param count number of values to split.
+     */
+    private void spread(double floor, double ceil, long count) {
+        int index = Math.max(0, binIndex(floor));
+        double size = ceil - floor;
+        double covered = 0;
+        long assigned = 0;
+        for (; index < this.bins; index++) {
+            double overlap = Math.min(ceil, this.layout.ceil(index)) - Math.max(floor, this.layout.floor(index));
+            if (overlap > 0) {
+                covered += overlap;
+                long share = Math.min(count, Math.round(count * (covered / size)));
+                this.counts.add(index, share - assigned);
+                assigned = share;
+            }
+            if (this.layout.ceil(index) >= ceil) {
+                break;
+            }
+        }
+        if (assigned != count) {
+            this.counts.add(Math.min(index, this.bins - 1), count - assigned);
+        }
+    }
+
+    /** Merge exact moments of other histogram, exact moments are dropped if other histogram has none.
+     *
+     * @param other other histogram.
+     */
+    private void mergeMoments(Histogram other) {
+        if (this.moments != null) {
+            if (other.moments != null) {
+                this.moments.add(other.moments);
+            } else {
+                this.moments = null;
+            }
         }
     }
 
@@ -123,33 +610,68 @@ public class Histogram {
 
             case ADD_TO_EDGE:
                 if (newValue<getMinH()) {
-                    this.intervals.get(0).addElement(this.intervals.get(0).getFloor());
+                    record(0, this.minH);
+                    clamped(1);
+                    return;
                 } else if (newValue>getMaxH()){
-                    this.intervals.get(this.bins - 1).addElement(this.intervals.get(this.bins - 1).getCeil());
+                    record(this.bins - 1, this.maxH);
+                    clamped(1);
+                    return;
                 }
                 break;
 
             case EXPAND:
-                if (newValue<getMinH()) {
-                    addIntervals(newValue, true);
-                } else if (newValue>getMaxH()){
-                    addIntervals(newValue, false);
-                }
+                expandTo(newValue, newValue);
                 break;
             case INTERVAL_ONLY:
                 break;
         }
-        if (newValue<=this.maxH || newValue >= this.minH){
-            for (int i=0; i<getBins(); i++){
-                if (this.intervals.get(i).contains(newValue)) {
-                    this.intervals.get(i).addElement(newValue);
-                    break;
-                }
-            }
+        int index = binIndex(newValue);
+        if (index >= 0) {
+            record(index, newValue);
+        } else if (this.listener != null) {
+            this.listener.valuesDropped(1);
         }
     }
 
+    /** Report values added to edge intervals.
+     *
+     * @param count number of values.
+     */
+    private void clamped(long count) {
+        if (this.listener != null && count != 0) {
+            this.listener.valuesClamped(count);
+        }
+    }
+
+    /** Index of the interval that contains value or of the nearest edge interval.
+     *
+     * @param value value to look up.
+     * @return index of interval.
+     */
+    private int clampedIndex(double value) {
+        int index = binIndex(value);
+        if (index < 0) {
+            index = value < this.minH ? 0 : this.bins - 1;
+        }
+        return index;
+    }
+
+    /** Index of the interval that contains value.
+     *
+     * @param value value to look up.
+     * @return index of interval or -1 if value is out of histogram.
+     */
+    private int binIndex(double value) {
+        if (!(value >= this.minH && value <= this.maxH)) {
+            return -1;
+        }
+        return this.layout.index(value);
+    }
+
     /** Add array of values to histogram.
+     *
+     * Range is expanded once for the whole array, then values are counted in blocks.
      *
      * @param data array.
      * @param appendType
@@ -158,12 +680,31 @@ public class Histogram {
      *              INTERVAL_ONLY, // Values from interval only added.
      */
     public void addBatch(double[] data, AppendType appendType){
-        for (double num: data){
-            addNumber(num, appendType);
+        long start = this.listener != null ? System.nanoTime() : 0;
+        long before = this.total;
+        if (appendType == AppendType.EXPAND) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double num: data){
+                // NaN and infinities are not counted by EXPAND, so they do not limit the range.
+                if (Double.isFinite(num)) {
+                    min = num < min ? num : min;
+                    max = num > max ? num : max;
+                }
+            }
+            expandTo(min, max);
+        }
+        int[] indices = new int[Math.min(BATCH_BLOCK, data.length)];
+        for (int from = 0; from < data.length; from += BATCH_BLOCK) {
+            addBlock(data, from, Math.min(data.length, from + BATCH_BLOCK), appendType, indices);
         }
+        batchAdded(before, start);
     }
 
     /** Add array of values to histogram.
+     *
+     * Range is expanded once for the whole array, then values are widened to double
+     * and counted in blocks, exactly as by addNumber(double, AppendType).
      *
      * @param data array.
      * @param appendType
@@ -172,12 +713,35 @@ public class Histogram {
      *              INTERVAL_ONLY, // Values from interval only added.
      */
     public void addBatch(float[] data, AppendType appendType){
-        for (float num: data){
-            addNumber(num, appendType);
+        long start = this.listener != null ? System.nanoTime() : 0;
+        long before = this.total;
+        if (appendType == AppendType.EXPAND) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (float num: data){
+                if (Float.isFinite(num)) {
+                    min = num < min ? num : min;
+                    max = num > max ? num : max;
+                }
+            }
+            expandTo(min, max);
+        }
+        double[] block = new double[Math.min(BATCH_BLOCK, data.length)];
+        int[] indices = new int[block.length];
+        for (int from = 0; from < data.length; from += BATCH_BLOCK) {
+            int length = Math.min(data.length - from, BATCH_BLOCK);
+            for (int i = 0; i < length; i++) {
+                block[i] = data[from + i];
+            }
+            addBlock(block, 0, length, appendType, indices);
         }
+        batchAdded(before, start);
     }
 
     /** Add array of values to histogram.
+     *
+     * Range is expanded once for the whole array, then values are widened to double
+     * and counted in blocks, exactly as by addNumber(double, AppendType).
      *
      * @param data array.
      * @param appendType
@@ -186,31 +750,183 @@ public class Histogram {
      *              INTERVAL_ONLY, // Values from interval only added.
      */
     public void addBatch(int[] data, AppendType appendType){
-        for (int num: data){
-            addNumber(num, appendType);
+        long start = this.listener != null ? System.nanoTime() : 0;
+        long before = this.total;
+        if (appendType == AppendType.EXPAND && data.length > 0) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int num: data){
+                min = Math.min(min, num);
+                max = Math.max(max, num);
+            }
+            expandTo(min, max);
+        }
+        double[] block = new double[Math.min(BATCH_BLOCK, data.length)];
+        int[] indices = new int[block.length];
+        for (int from = 0; from < data.length; from += BATCH_BLOCK) {
+            int length = Math.min(data.length - from, BATCH_BLOCK);
+            for (int i = 0; i < length; i++) {
+                block[i] = data[from + i];
+            }
+            addBlock(block, 0, length, appendType, indices);
+        }
+        batchAdded(before, start);
+    }
+
+    /** Report batch to listener.
+     *
+     * @param before number of values before batch.
+     * @param start start time of batch in nanoseconds.
+     */
+    private void batchAdded(long before, long start) {
+        if (this.listener != null) {
+            this.listener.batchAdded(this.total - before, System.nanoTime() - start);
+        }
+    }
+
+    /** Expand range once, so it contains min and max.
+     *
+     * @param min smallest value, ignored if infinite.
+     * @param max biggest value, ignored if infinite.
+     */
+    private void expandTo(double min, double max) {
+        if (min < this.minH && min != Double.NEGATIVE_INFINITY) {
+            addIntervals(min, true);
+        }
+        if (max > this.maxH && max != Double.POSITIVE_INFINITY) {
+            addIntervals(max, false);
+        }
+    }
+
+    /** Count block of values in current range.
+     *
+     * Indices of intervals are computed by layout in one loop without per-value branches on state
+     * of histogram, exact moments and clamped values are handled in separate loops only when needed.
+     *
+     * @param values values.
+     * @param from index of the first value.
+     * @param to index after the last value.
+     * @param appendType append type, values out of range are clamped for ADD_TO_EDGE and skipped otherwise.
+     * @param indices buffer for at least (to - from) indices.
+     */
+    private void addBlock(double[] values, int from, int to, AppendType appendType, int[] indices) {
+        boolean toEdge = appendType == AppendType.ADD_TO_EDGE;
+        double min = this.minH;
+        double max = this.maxH;
+        int onLeft = this.layout.indices(values, from, to, min, max, toEdge, indices);
+        this.onLeft += onLeft;
+        this.counts.addOnLeft(onLeft);
+        if (this.moments != null) {
+            for (int i = from; i < to; i++) {
+                if (indices[i - from] >= 0) {
+                    this.moments.add(Math.max(min, Math.min(max, values[i])));
+                }
+            }
+        }
+        if (toEdge && this.listener != null) {
+            int clamped = 0;
+            for (int i = from; i < to; i++) {
+                clamped += values[i] < min || values[i] > max ? 1 : 0;
+            }
+            clamped(clamped);
+        }
+        countIndices(indices, to - from);
+    }
+
+    /** Add one value to interval of every index, indices of values that are not counted are -1.
+     *
+     * @param indices indices of intervals, compacted in place.
+     * @param length number of indices.
+     */
+    private void countIndices(int[] indices, int length) {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            int index = indices[i];
+            indices[size] = index;
+            size += ~index >>> 31;
+        }
+        this.counts.increment(indices, size);
+        this.counts = this.counts.adapted();
+        this.total += size;
+        if (this.listener != null && size != length) {
+            this.listener.valuesDropped(length - size);
+        }
+        this.statistics.clear();
+        if (this.cumulative != null) {
+            for (int i = 0; i < size; i++) {
+                this.cumulative.add(indices[i], 1);
+            }
         }
     }
 
     /** Add values from file to histogram.
+     *
+     * File is memory-mapped and whitespace separated decimal numbers are parsed without
+     * creating objects for each value.
      *
      * @param fileName path to file
      * @param appendType
      *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
      *              EXPAND,    // Adds bins to the histogram in order to add value.
      *              INTERVAL_ONLY, // Values from interval only added.
+     * @throws UncheckedIOException if file can not be read.
+     * @throws NumberFormatException if file contains not a number.
      */
     public void addBatch(String fileName, AppendType appendType){
-        File file = new File(fileName);
+        long start = this.listener != null ? System.nanoTime() : 0;
+        long before = this.total;
+        try {
+            NumberFileReader.read(Paths.get(fileName), value -> addNumber(value, appendType));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read values from " + fileName + ".", e);
+        }
+        batchAdded(before, start);
+    }
 
-        try (Scanner scanner = new Scanner(file)) {
-            double val;
-            while(scanner.hasNextDouble()) {
-                val = scanner.nextDouble();
-                addNumber(val, appendType);
+    /** Add values from file to histogram using many threads.
+     *
+     * File is split at whitespace into chunks, every chunk is read into partial histogram
+     * on the pool and partial histograms are merged. Result is the same as of addBatch(fileName, appendType),
+     * clamped and dropped values of all chunks are reported to listener once after merge.
+     *
+     * @param fileName path to file
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     * @param pool pool for reading chunks.
+     * @throws UncheckedIOException if file can not be read.
+     * @throws NumberFormatException if file contains not a number.
+     */
+    public void addBatch(String fileName, AppendType appendType, ForkJoinPool pool){
+        addBatch(fileName, appendType, pool, PARALLEL_CHUNK);
+    }
+
+    /** Add values from file to histogram using many threads.
+     *
+     * @param fileName path to file
+     * @param appendType append type.
+     * @param pool pool for reading chunks.
+     * @param chunkSize maximal number of bytes read by one task.
+     */
+    void addBatch(String fileName, AppendType appendType, ForkJoinPool pool, long chunkSize){
+        long start = this.listener != null ? System.nanoTime() : 0;
+        long before = this.total;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            FileChunkTask task = new FileChunkTask(channel, 0, channel.size(), chunkSize, this, appendType);
+            Histogram partial = pool.invoke(task);
+            try {
+                merge(partial);
+            } finally {
+                partial.close();
+            }
+            if (this.listener != null) {
+                task.report(this.listener);
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read values from " + fileName + ".", e);
         }
+        batchAdded(before, start);
     }
 
     /** Getter for minH.
@@ -229,7 +945,12 @@ public class Histogram {
         if (count()>0) {
             throw  new HistogramBoundariesRedefinition("Can not change histogram size after added values.");
         }
+        if (!(minH < this.maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        BinLayout layout = this.layout.resized(minH, this.maxH, this.bins);
         this.minH = minH;
+        generateIntervals(layout);
     }
 
     /** Getter for maxH.
@@ -246,8 +967,20 @@ public class Histogram {
      */
     public void setMaxH(double maxH) {
         if (count()>0) throw new HistogramBoundariesRedefinition("Can not change histogram size after adding values.");
+        if (!(this.minH < maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        BinLayout layout = this.layout.resized(this.minH, maxH, this.bins);
         this.maxH = maxH;
+        generateIntervals(layout);
+    }
 
+    /** Set receiver of events for monitoring, it is not passed to copies.
+     *
+     * @param listener listener or null to disable monitoring.
+     */
+    public void setListener(HistogramListener listener) {
+        this.listener = listener;
     }
 
     /** Getter for bins.
@@ -258,32 +991,68 @@ public class Histogram {
         return bins;
     }
 
+    /** Intervals of histogram, one per line.
+     *
+     * Sparse histogram prints only non-empty intervals, runs of empty ones between them are
+     * replaced by their number, so output does not grow with far outliers.
+     *
+     * @return description of intervals.
+     */
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Histogram:\n");
-        for (Interval interval: this.intervals){
+        if (this.counts instanceof SparseBinStorage) {
+            int from = 0;
+            for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)){
+                emptyRun(sb, i - from);
+                sb.append(' ');
+                sb.append(getInterval(i));
+                sb.append('\n');
+                from = i + 1;
+            }
+            emptyRun(sb, this.bins - from);
+            return sb.toString();
+        }
+        for (int i=0; i<this.bins; i++){
             sb.append(' ');
-            sb.append(interval);
+            sb.append(getInterval(i));
             sb.append('\n');
         }
         return sb.toString();
     }
 
+    /** Append line for run of empty intervals.
+     *
+     * @param sb output.
+     * @param length number of empty intervals, nothing is appended for 0.
+     */
+    private static void emptyRun(StringBuilder sb, int length) {
+        if (length > 0) {
+            sb.append(" ... ").append(length).append(" empty intervals\n");
+        }
+    }
+
     /** Setter for bins.
+     *
+     * Histogram with values is re-binned to any number of bins in O(old bins + new bins):
+     * count of every old interval is split between new intervals in proportion to their overlap,
+     * as if values were spread evenly inside old intervals. Split counts are rounded, so every new
+     * interval differs from its proportional share by less than 2 values, and total count is kept.
+     * Intervals that nest into new ones are moved exactly, otherwise count of a new interval may differ
+     * from exact count of its values by at most counts of the two old intervals across its edges.
+     * Log-linear histogram has number of bins defined by significant digits, so it can not be re-binned
+     * to other number of bins.
      *
      * @param bins new number of bins.
+     * @throws IllegalBinsValue if bins is not positive, or histogram is log-linear and bins differs.
      */
     public void setBins(int bins) {
         if (bins <= 0) {
             throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
-        } else if (count()!=0 && this.bins<bins) {
-            throw new IllegalBinsValue("Can not reduce interval size after adding values.");
         } else if (count() == 0){
-            this.bins = bins;
-            generateIntervals();
+            generateIntervals(this.layout.resized(this.minH, this.maxH, bins));
         } else {
-            this.bins = bins;
-            updateIntervals();
+            updateIntervals(bins);
         }
     }
 
@@ -291,8 +1060,8 @@ public class Histogram {
      *
      * @return number of elements in histogram.
      */
-    public int count(){
-        return  this.intervals.stream().mapToInt(Interval::getCount).sum();
+    public long count(){
+        return this.total;
     }
 
     /** Count number of elements from interval
@@ -300,9 +1069,39 @@ public class Histogram {
      * @param index index of the interval.
      * @return number of elements.
      */
-    public int count(int index){
+    public long count(int index){
         if (index>=0 && index < this.bins) {
-            return this.intervals.get(index).getCount();
+            return this.counts.get(index);
+        } else {
+            throw new IndexOutOfBoundsException("Interval index out of bounds.");
+        }
+    }
+
+    /** Getter for layout.
+     *
+     * @return boundaries of intervals, replaced when intervals are added.
+     */
+    BinLayout getLayout() {
+        return this.layout;
+    }
+
+    /** Upper boundary of interval without copying it.
+     *
+     * @param index index of the interval, from 0 to bins - 1.
+     * @return upper boundary.
+     */
+    double ceil(int index) {
+        return this.layout.ceil(index);
+    }
+
+    /** View of interval.
+     *
+     * @param index index of the interval.
+     * @return copy of interval with its boundaries and count.
+     */
+    public Interval getInterval(int index){
+        if (index>=0 && index < this.bins) {
+            return new Interval(this.layout.floor(index), this.layout.ceil(index), count(index), index == 0, index == 0 ? this.onLeft : 0);
         } else {
             throw new IndexOutOfBoundsException("Interval index out of bounds.");
         }
@@ -316,15 +1115,113 @@ public class Histogram {
         return rawMoment(1);
     }
 
+    /** Value from approx variational series.
+     *
+     * @param rank index in variational series.
+     * @return median of interval that contains element with this index.
+     */
+    private double valueAt(long rank) {
+        int index = intervalAt(rank);
+        if (index == this.bins) {
+            throw new IndexOutOfBoundsException("Rank out of bounds.");
+        }
+        return this.layout.midpoint(index);
+    }
+
+    /** Prefix sums of counts, built on first call and then kept up to date by added values.
+     *
+     * @return prefix sums or null if histogram has too many intervals for them.
+     */
+    private CumulativeCounts cumulative() {
+        if (this.cumulative == null && this.bins <= BinStorage.DENSE_LIMIT) {
+            this.cumulative = new CumulativeCounts(this.counts);
+        }
+        return this.cumulative;
+    }
+
+    /** Interval that contains value with given rank in variational series.
+     *
+     * @param rank 0-based rank.
+     * @return index of interval or number of intervals if rank is out of bounds.
+     */
+    private int intervalAt(long rank) {
+        CumulativeCounts cumulative = cumulative();
+        if (cumulative != null) {
+            return cumulative.search(rank);
+        }
+        for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)) {
+            long count = this.counts.get(i);
+            if (rank < count) {
+                return i;
+            }
+            rank -= count;
+        }
+        return this.bins;
+    }
+
+    /** Number of values in intervals before given one.
+     *
+     * @param index index of the interval.
+     * @return sum of counts of intervals from 0 to index - 1.
+     */
+    private long countBefore(int index) {
+        CumulativeCounts cumulative = cumulative();
+        if (cumulative != null) {
+            return cumulative.prefix(index - 1);
+        }
+        long sum = 0;
+        for (int i=this.counts.next(0); i<index; i=this.counts.next(i+1)) {
+            sum += this.counts.get(i);
+        }
+        return sum;
+    }
+
+    /** Quantile of added values.
+     *
+     * Interval with the value of rank q * count() is found in O(log bins) and value is linearly
+     * interpolated inside it, so quantile(0) is floor of the first non-empty interval and
+     * quantile(1) is ceil of the last one.
+     *
+     * @param q level of quantile from 0 to 1, 0.99 for 99-th percentile.
+     * @return quantile or NaN if histogram is empty.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalQuantile("Level of quantile should be from 0 to 1.");
+        }
+        if (this.total == 0) {
+            return Double.NaN;
+        }
+        double position = q * this.total;
+        int index = intervalAt(Math.max(0, (long) Math.ceil(position) - 1));
+        double fraction = (position - countBefore(index)) / this.counts.get(index);
+        double floor = this.layout.floor(index);
+        return floor + Math.max(0, Math.min(1, fraction)) * (this.layout.ceil(index) - floor);
+    }
+
+    /** Quantiles of added values.
+     *
+     * @param qs levels of quantiles from 0 to 1.
+     * @return quantile for every level, see quantile(double).
+     */
+    public double[] quantiles(double... qs) {
+        double[] quantiles = new double[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            quantiles[i] = quantile(qs[i]);
+        }
+        return quantiles;
+    }
+
     /** Approx variational series.
      *
      * @return variational series.
      */
     public ArrayList<Double> variationalSeries(){
         ArrayList<Double> vSeries = new ArrayList<>();
-        for (Interval interval: this.intervals){
-            for (int c=0; c<interval.getCount(); c++) {
-                vSeries.add(interval.getMedian());
+        for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)){
+            double median = this.layout.midpoint(i);
+            for (long c=0; c<this.counts.get(i); c++) {
+                vSeries.add(median);
             }
         }
         return vSeries;
@@ -335,10 +1232,13 @@ public class Histogram {
      * @return Median.
      */
     public double median(){
-        ArrayList<Double> vSeries= variationalSeries();
-        return vSeries.size()%2==0 ?
-                (vSeries.get(vSeries.size()/2)+vSeries.get((vSeries.size()+1)/2))/2:
-                vSeries.get((vSeries.size()+1)/2);
+        if (this.statistics.has(StatisticsCache.MEDIAN)) {
+            return this.statistics.get(StatisticsCache.MEDIAN);
+        }
+        long size = this.total;
+        return this.statistics.put(StatisticsCache.MEDIAN, size%2==0 ?
+                (valueAt(size/2-1)+valueAt(size/2))/2:
+                valueAt(size/2));
     }
 
     /**
@@ -388,11 +1288,25 @@ public class Histogram {
      */
     public double rawMoment(int n){
         assert n>0;
+        if (this.moments != null && n <= Moments.MAX_DEGREE) {
+            return this.moments.rawMoment(n);
+        }
+        int slot = StatisticsCache.RAW_MOMENT + n - 1;
+        boolean cached = n <= Moments.MAX_DEGREE;
+        if (cached && this.statistics.has(slot)) {
+            return this.statistics.get(slot);
+        }
         double sum = 0;
-        for (Double val : variationalSeries()){
-            sum += Math.pow(val, n);
+        long size = 0;
+        for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)){
+            long count = this.counts.get(i);
+            if (count != 0) {
+                sum += count * Math.pow(this.layout.midpoint(i), n);
+                size += count;
+            }
         }
-        return 1/(double)count()*sum;
+        double moment = 1/(double)size*sum;
+        return cached ? this.statistics.put(slot, moment) : moment;
     }
 
 
@@ -403,12 +1317,26 @@ public class Histogram {
      */
     public double centralMoment(int n) {
         assert n > 0;
+        if (this.moments != null && n <= Moments.MAX_DEGREE) {
+            return this.moments.centralMoment(n);
+        }
+        int slot = StatisticsCache.CENTRAL_MOMENT + n - 1;
+        boolean cached = n <= Moments.MAX_DEGREE;
+        if (cached && this.statistics.has(slot)) {
+            return this.statistics.get(slot);
+        }
         double sum = 0;
+        long size = 0;
         double meanV = mean();
-        for (Double val : variationalSeries()) {
-            sum += Math.pow((val - meanV), n);
+        for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)){
+            long count = this.counts.get(i);
+            if (count != 0) {
+                sum += count * Math.pow(this.layout.midpoint(i) - meanV, n);
+                size += count;
+            }
         }
-        return 1 / (double)count() * sum;
+        double moment = 1 / (double)size * sum;
+        return cached ? this.statistics.put(slot, moment) : moment;
     }
 
     /** Range of histogram.
@@ -416,19 +1344,21 @@ public class Histogram {
      * @return range.
      */
     public double range(){
-        double l = this.intervals.get(0).getFloor();
-        double u = this.intervals.get(getBins()-1).getCeil();
-        for (int i=0; i<getBins(); i++){
-            if (this.count(i)!=0){
-                l = this.intervals.get(i).getFloor();
-                break;
-            }
-            if (this.count(getBins()-1-i)!=0){
-                u = this.intervals.get(getBins()-1-i).getCeil();
-                break;
+        if (this.statistics.has(StatisticsCache.RANGE)) {
+            return this.statistics.get(StatisticsCache.RANGE);
+        }
+        double l = this.layout.floor(0);
+        double u = this.layout.ceil(getBins()-1);
+        int first = this.counts.next(0);
+        if (first < this.bins) {
+            int last = first;
+            for (int i=this.counts.next(first+1); i<this.bins; i=this.counts.next(i+1)){
+                last = i;
             }
+            l = this.layout.floor(first);
+            u = this.layout.ceil(last);
         }
-        return u-l;
+        return this.statistics.put(StatisticsCache.RANGE, u-l);
 
     }
 
@@ -437,14 +1367,139 @@ public class Histogram {
      * @return median absolute deviation.
      */
     public double mad(){
-        //
+        if (this.statistics.has(StatisticsCache.MAD)) {
+            return this.statistics.get(StatisticsCache.MAD);
+        }
         double sum = 0;
+        long size = 0;
         double med = median();
-        for (Double val : variationalSeries()) {
-            sum += Math.abs(val - med);
+        for (int i=this.counts.next(0); i<this.bins; i=this.counts.next(i+1)){
+            long count = this.counts.get(i);
+            if (count != 0) {
+                sum += count * Math.abs(this.layout.midpoint(i) - med);
+                size += count;
+            }
+        }
+        return this.statistics.put(StatisticsCache.MAD, 1 / (double) size * sum);
+
+    }
+
+    /** Size of encoded histogram.
+     *
+     * @return size in bytes.
+     */
+    public int encodedSize() {
+        int size = Integer.BYTES + 2 + 2 * Double.BYTES + VarInts.size(this.bins) + VarInts.size(this.onLeft)
+                + this.layout.encodedSize() + encodeCounts(null);
+        if (this.moments != null) {
+            size += this.moments.encodedSize();
+        }
+        return size;
+    }
+
+    /** Write compact binary form of histogram at buffer position.
+     *
+     * Encoding keeps boundaries, number of bins, number of values on the left boundary, layout of intervals, counts
+     * of intervals as variable-length numbers with runs of empty intervals collapsed, and exact
+     * moments if histogram has them. Numbers are big-endian whatever order buffer has.
+     *
+     * @param buffer heap or direct buffer with at least encodedSize() bytes remaining.
+     */
+    public void encode(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.putInt(ENCODING_MAGIC);
+            buffer.put(ENCODING_VERSION);
+            buffer.put(this.moments != null ? EXACT_MOMENTS : 0);
+            buffer.putDouble(this.minH);
+            buffer.putDouble(this.maxH);
+            VarInts.put(buffer, this.bins);
+            VarInts.put(buffer, this.onLeft);
+            this.layout.encode(buffer);
+            encodeCounts(buffer);
+            if (this.moments != null) {
+                this.moments.encode(buffer);
+            }
+        } finally {
+            buffer.order(order);
         }
-        return 1 / (double) count() * sum;
+    }
 
+    /** Read histogram written by encode() from buffer position.
+     *
+     * @param buffer heap or direct buffer.
+     * @return histogram.
+     */
+    public static Histogram decode(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != ENCODING_MAGIC) {
+                throw new IllegalHistogramEncoding("Buffer does not contain histogram.");
+            }
+            byte version = buffer.get();
+            if (version != 1 && version != ENCODING_VERSION) {
+                throw new IllegalHistogramEncoding("Unknown version of histogram encoding.");
+            }
+            byte flags = buffer.get();
+            double minH = buffer.getDouble();
+            double maxH = buffer.getDouble();
+            long bins = VarInts.get(buffer);
+            long onLeft = VarInts.get(buffer);
+            if (!(minH < maxH) || bins <= 0 || bins > BinLayout.MAX_BINS) {
+                throw new IllegalHistogramEncoding("Invalid boundaries of encoded histogram.");
+            }
+            BinLayout layout = version == 1 ? new LinearLayout(minH, maxH, (int) bins) : BinLayout.decode(buffer, (int) bins);
+            BinStorage counts = BinStorage.create((int) bins);
+            int index = 0;
+            while (index < bins) {
+                long token = VarInts.get(buffer);
+                if ((token & 1) == 0) {
+                    counts.add(index++, token >>> 1);
+                } else if ((token >>> 1) <= bins - index) {
+                    index += (int) (token >>> 1);
+                } else {
+                    throw new IllegalHistogramEncoding("Invalid counts of encoded histogram.");
+                }
+            }
+            if (onLeft < 0 || onLeft > counts.get(0)) {
+                throw new IllegalHistogramEncoding("Values on the left boundary exceed count of the first interval.");
+            }
+            Histogram histogram = new Histogram(minH, maxH, layout, counts.adapted(), onLeft);
+            if ((flags & EXACT_MOMENTS) != 0) {
+                histogram.moments = Moments.decode(buffer);
+            }
+            return histogram;
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /** Write counts as variable-length numbers: count * 2 for interval, length * 2 + 1 for run of empty intervals.
+     *
+     * @param buffer buffer or null to compute size only.
+     * @return size in bytes.
+     */
+    private int encodeCounts(ByteBuffer buffer) {
+        int size = 0;
+        int index = 0;
+        while (index < this.bins) {
+            long token;
+            if (this.counts.get(index) != 0) {
+                token = this.counts.get(index) << 1;
+                index++;
+            } else {
+                int start = index;
+                index = this.counts.next(index);
+                token = ((long) (index - start) << 1) | 1;
+            }
+            size += VarInts.size(token);
+            if (buffer != null) {
+                VarInts.put(buffer, token);
+            }
+        }
+        return size;
     }
 
     /** Statistical describe of histogram.
@@ -0,0 +1,45 @@
+/** Receiver of events of Histogram for monitoring.
+ *
+ * Histogram without listener only checks it for null, so monitoring costs nothing when disabled.
+ * Methods are called on the thread that changes histogram, right after change, and should be fast.
+ * Default methods ignore events.
+ */
+public interface HistogramListener {
+
+    /** Values out of range were added to edge intervals by ADD_TO_EDGE.
+     *
+     * @param count number of values.
+     */
+    default void valuesClamped(long count) {
+    }
+
+    /** Values were not counted: out of range for INTERVAL_ONLY, NaN or infinite for EXPAND.
+     *
+     * @param count number of values.
+     */
+    default void valuesDropped(long count) {
+    }
+
+    /** Intervals were added to histogram by EXPAND or merge.
+     *
+     * @param count number of added intervals.
+     */
+    default void binsAdded(int count) {
+    }
+
+    /** Counts of histogram with values were moved to new number of intervals.
+     *
+     * @param oldBins number of intervals before.
+     * @param newBins number of intervals after.
+     */
+    default void rebinned(int oldBins, int newBins) {
+    }
+
+    /** Batch of values was added by addBatch.
+     *
+     * @param count number of counted values.
+     * @param nanos duration of adding in nanoseconds.
+     */
+    default void batchAdded(long count, long nanos) {
+    }
+}
@@ -0,0 +1,110 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counters of histogram events, exposed as JMX MBean.
+ *
+ * One instance can be set as listener of many histograms, even of different threads:
+ * counters are LongAdders, so concurrent updates do not contend.
+ */
+public class HistogramMetrics implements HistogramListener, HistogramMetricsMBean {
+
+    private final LongAdder clamped = new LongAdder(); // Values added to edge intervals.
+    private final LongAdder dropped = new LongAdder(); // Values that were not counted.
+    private final LongAdder addedBins = new LongAdder(); // Added intervals.
+    private final LongAdder rebinnings = new LongAdder(); // Changes of number of bins with values.
+    private final LongAdder batches = new LongAdder(); // Number of batches.
+    private final LongAdder batchValues = new LongAdder(); // Values counted by batches.
+    private final LongAdder batchNanos = new LongAdder(); // Duration of batches in nanoseconds.
+
+    @Override
+    public void valuesClamped(long count) {
+        this.clamped.add(count);
+    }
+
+    @Override
+    public void valuesDropped(long count) {
+        this.dropped.add(count);
+    }
+
+    @Override
+    public void binsAdded(int count) {
+        this.addedBins.add(count);
+    }
+
+    @Override
+    public void rebinned(int oldBins, int newBins) {
+        this.rebinnings.increment();
+    }
+
+    @Override
+    public void batchAdded(long count, long nanos) {
+        this.batches.increment();
+        this.batchValues.add(count);
+        this.batchNanos.add(nanos);
+    }
+
+    @Override
+    public long getClampedValues() {
+        return this.clamped.sum();
+    }
+
+    @Override
+    public long getDroppedValues() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public long getAddedBins() {
+        return this.addedBins.sum();
+    }
+
+    @Override
+    public long getRebinnings() {
+        return this.rebinnings.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    @Override
+    public long getBatchValues() {
+        return this.batchValues.sum();
+    }
+
+    @Override
+    public double getBatchRate() {
+        long nanos = this.batchNanos.sum();
+        return nanos == 0 ? 0 : this.batchValues.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public void reset() {
+        this.clamped.reset();
+        this.dropped.reset();
+        this.addedBins.reset();
+        this.rebinnings.reset();
+        this.batches.reset();
+        this.batchValues.reset();
+        this.batchNanos.reset();
+    }
+
+    /** Register metrics in platform MBean server.
+     *
+     * @param name object name, like "histogram:type=HistogramMetrics,name=latency".
+     * @return registered name.
+     * @throws IllegalStateException if name is invalid or already registered.
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Can not register histogram metrics as " + name + ".", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/** JMX view of HistogramMetrics.
+ *
+ */
+public interface HistogramMetricsMBean {
+
+    /**
+     *
+     * @return number of values added to edge intervals by ADD_TO_EDGE.
+     */
+    long getClampedValues();
+
+    /**
+     *
+     * @return number of values that were not counted.
+     */
+    long getDroppedValues();
+
+    /**
+     *
+     * @return number of intervals added by EXPAND or merge.
+     */
+    long getAddedBins();
+
+    /**
+     *
+     * @return number of times histograms with values changed number of bins.
+     */
+    long getRebinnings();
+
+    /**
+     *
+     * @return number of batches.
+     */
+    long getBatches();
+
+    /**
+     *
+     * @return number of values counted by batches.
+     */
+    long getBatchValues();
+
+    /**
+     *
+     * @return values counted by batches per second of adding, 0 if there were no batches.
+     */
+    double getBatchRate();
+
+    /** Set all counters to zero.
+     *
+     */
+    void reset();
+}
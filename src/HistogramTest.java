@@ -1,6 +1,9 @@
 import exceptions.HistogramBoundariesRedefinition;
 import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
 import exceptions.IllegalIntervalBounds;
+import exceptions.IllegalQuantile;
+import exceptions.IncompatibleHistograms;
 import exceptions.WrongIntervalElement;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -67,7 +70,7 @@ class HistogramTest {
         Assertions.assertThrows(HistogramBoundariesRedefinition.class, () -> histogram.setMaxH(2));
 
         //IllegalBinsValue
-        Assertions.assertThrows(IllegalBinsValue.class, () -> histogram.setBins(10));
+        Assertions.assertThrows(IllegalBinsValue.class, () -> histogram.setBins(0));
 
         //Illegal interval bounds
         Assertions.assertThrows(IllegalIntervalBounds.class, () -> new Interval(2,1));
@@ -93,4 +96,716 @@ class HistogramTest {
         System.out.println(histogram);
     }
 
-}
\ No newline at end of file
+    @Test
+    void binLookupTest(){
+        //edges go to the left interval, except floor of the first one.
+        histogram.addBatch(new double[]{0,1,1.5,2,5}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2, histogram.count(0));
+        Assertions.assertEquals(2, histogram.count(1));
+        Assertions.assertEquals(0, histogram.count(2));
+        Assertions.assertEquals(1, histogram.count(4));
+
+        //out of range values are skipped.
+        histogram.addBatch(new double[]{-0.5, 5.5, Double.NaN}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(5, histogram.count());
+
+        //lookup keeps working after expanding.
+        histogram.addBatch(new double[]{-1.5, 7}, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(9, histogram.getBins());
+        Assertions.assertEquals(1, histogram.count(0));
+        Assertions.assertEquals(1, histogram.count(1));
+        Assertions.assertEquals(1, histogram.count(2));
+        histogram.addNumber(-1, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2, histogram.count(0));
+        Assertions.assertEquals(1, histogram.count(8));
+    }
+
+    @Test
+    void growTest(){
+        //many single intervals on both sides.
+        for (int i=1; i<=1000; i++){
+            histogram.addNumber(-i + 0.5, Histogram.AppendType.EXPAND);
+            histogram.addNumber(5 + i - 0.5, Histogram.AppendType.EXPAND);
+        }
+        Assertions.assertEquals(2005, histogram.getBins());
+        Assertions.assertEquals(-1000, histogram.getMinH(), 1e-9);
+        Assertions.assertEquals(1005, histogram.getMaxH(), 1e-9);
+        Assertions.assertEquals(2000, histogram.count());
+        for (int i=0; i<1000; i++){
+            Assertions.assertEquals(1, histogram.count(i));
+            Assertions.assertEquals(0, histogram.count(1000 + i % 5));
+            Assertions.assertEquals(1, histogram.count(1005 + i));
+        }
+
+        //interval views.
+        Interval first = histogram.getInterval(0);
+        Assertions.assertTrue(first.isFirst());
+        Assertions.assertEquals(-1000, first.getFloor(), 1e-9);
+        Assertions.assertEquals(-999, first.getCeil(), 1e-9);
+        Assertions.assertEquals(1, first.getCount());
+        Assertions.assertFalse(histogram.getInterval(1).isFirst());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> histogram.getInterval(2005));
+    }
+
+    @Test
+    void momentsTest(){
+        double[] data = {0.2, 0.4, 1.1, 2.5, 2.5, 3.9, 4.7, 5};
+        Histogram exact = new Histogram(0, 5, 5, true);
+        histogram.addBatch(data, Histogram.AppendType.INTERVAL_ONLY);
+        exact.addBatch(data, Histogram.AppendType.INTERVAL_ONLY);
+
+        //approximated from interval medians.
+        Assertions.assertEquals(2.5, histogram.mean(), 1e-12);
+        Assertions.assertEquals(2.5, histogram.median(), 1e-12);
+        double central3 = 0;
+        for (Double val: histogram.variationalSeries()){
+            central3 += Math.pow(val - 2.5, 3);
+        }
+        Assertions.assertEquals(central3 / data.length, histogram.centralMoment(3), 1e-12);
+
+        //exact moments of added values.
+        double mean = 0;
+        for (double val: data){
+            mean += val / data.length;
+        }
+        double[] central = new double[5];
+        for (double val: data){
+            for (int n=2; n<=4; n++){
+                central[n] += Math.pow(val - mean, n) / data.length;
+            }
+        }
+        Assertions.assertEquals(mean, exact.mean(), 1e-12);
+        Assertions.assertEquals(0, exact.centralMoment(1), 1e-12);
+        for (int n=2; n<=4; n++){
+            Assertions.assertEquals(central[n], exact.centralMoment(n), 1e-12);
+        }
+        Assertions.assertEquals(Math.sqrt(central[2] + mean * mean), exact.std(), 1e-12);
+        Assertions.assertEquals(histogram.median(), exact.median());
+        Assertions.assertEquals(histogram.rawMoment(5), exact.rawMoment(5));
+    }
+
+    @Test
+    void addHistogramTest(){
+        //histograms with same intervals grown in different directions.
+        Histogram left = new Histogram(0, 5, 5, true);
+        Histogram right = new Histogram(0, 5, 5, true);
+        left.addBatch(new double[]{0, 0, -2.5, 3}, Histogram.AppendType.EXPAND);
+        right.addBatch(new double[]{0, 1, 7.5}, Histogram.AppendType.EXPAND);
+        histogram.addBatch(new double[]{0, 4}, Histogram.AppendType.INTERVAL_ONLY);
+        histogram.merge(left);
+        histogram.merge(right);
+
+        Histogram expected = new Histogram(0, 5, 5);
+        expected.addBatch(new double[]{0, 4, 0, 0, -2.5, 3, 0, 1, 7.5}, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(expected.toString(), histogram.toString());
+
+        //exact moments are merged.
+        Histogram all = new Histogram(0, 5, 5, true);
+        all.addBatch(new double[]{0, 0, -2.5, 3, 0, 1, 7.5}, Histogram.AppendType.EXPAND);
+        left.merge(right);
+        for (int n=1; n<=4; n++){
+            Assertions.assertEquals(all.centralMoment(n), left.centralMoment(n), 1e-9);
+        }
+
+        Assertions.assertThrows(IncompatibleHistograms.class, () -> histogram.subtract(new Histogram(0, 5, 4)));
+    }
+
+    @Test
+    void subtractTest(){
+        Histogram part = new Histogram(0, 5, 5, true);
+        Histogram all = new Histogram(0, 5, 5, true);
+        part.addBatch(new double[]{0, -1, 2.5, 6}, Histogram.AppendType.EXPAND);
+        all.addBatch(new double[]{0, 0, 3, 4}, Histogram.AppendType.EXPAND);
+        double variance = all.centralMoment(2);
+        all.merge(part);
+        all.subtract(part);
+        Assertions.assertEquals(4, all.count());
+        Assertions.assertEquals(7, all.getBins());
+        Assertions.assertEquals(2, all.count(0));
+        Assertions.assertEquals(1, all.count(3));
+        Assertions.assertEquals(1, all.count(4));
+        Assertions.assertEquals(variance, all.centralMoment(2), 1e-9);
+
+        //failed subtract does not change histogram.
+        Assertions.assertThrows(IncompatibleHistograms.class, () -> all.subtract(part));
+        Assertions.assertEquals(4, all.count());
+        Assertions.assertEquals(2, all.count(0));
+    }
+
+    @Test
+    void rebinnedMergeTest(){
+        //(0; 10] intervals of size 2 are split between intervals of size 1.5.
+        Histogram other = new Histogram(0, 10, 5);
+        other.addBatch(new double[]{0, 1, 3, 3, 3, 5, 9, 9.5}, Histogram.AppendType.INTERVAL_ONLY);
+        Histogram target = new Histogram(0, 3, 2);
+        target.merge(other);
+        Assertions.assertEquals(8, target.count());
+        Assertions.assertEquals(10.5, target.getMaxH(), 1e-9);
+        Assertions.assertEquals(2, target.count(0));
+        for (int i=0; i<target.getBins(); i++){
+            Assertions.assertTrue(target.count(i) >= 0);
+        }
+
+        //merge of many histograms.
+        java.util.List<Histogram> parts = new java.util.ArrayList<>();
+        Histogram expected = new Histogram(0, 1, 10);
+        for (int i=0; i<1000; i++){
+            Histogram part = new Histogram(0, 1, 10);
+            part.addNumber(i / 100.0 - 3, Histogram.AppendType.EXPAND);
+            expected.addNumber(i / 100.0 - 3, Histogram.AppendType.EXPAND);
+            parts.add(part);
+        }
+        Histogram merged = Histogram.merge(parts);
+        Assertions.assertEquals(expected.toString(), merged.toString());
+    }
+
+    @Test
+    void encodeTest(){
+        Histogram exact = new Histogram(0, 5, 1000, true);
+        exact.addBatch(new double[]{0, 0, 1, 4.3, 4.3, -3}, Histogram.AppendType.EXPAND);
+        histogram.addBatch("resources/random.txt", Histogram.AppendType.EXPAND);
+        for (Histogram source: new Histogram[]{histogram, exact}){
+            for (java.nio.ByteBuffer buffer: new java.nio.ByteBuffer[]{
+                    java.nio.ByteBuffer.allocate(source.encodedSize() + 3),
+                    java.nio.ByteBuffer.allocateDirect(source.encodedSize()).order(java.nio.ByteOrder.LITTLE_ENDIAN)}){
+                source.encode(buffer);
+                Assertions.assertEquals(source.encodedSize(), buffer.position());
+                buffer.flip();
+                Histogram decoded = Histogram.decode(buffer);
+                Assertions.assertFalse(buffer.hasRemaining());
+                Assertions.assertEquals(buffer.isDirect() ? java.nio.ByteOrder.LITTLE_ENDIAN : java.nio.ByteOrder.BIG_ENDIAN,
+                        buffer.order());
+                Assertions.assertEquals(source.getBins(), decoded.getBins());
+                Assertions.assertEquals(source.getMinH(), decoded.getMinH());
+                Assertions.assertEquals(source.getMaxH(), decoded.getMaxH());
+                for (int i=0; i<source.getBins(); i++){
+                    Assertions.assertEquals(source.count(i), decoded.count(i));
+                }
+                Assertions.assertEquals(source.centralMoment(3), decoded.centralMoment(3), 1e-9);
+            }
+        }
+        //empty intervals are collapsed.
+        Assertions.assertTrue(exact.encodedSize() < 100);
+        Assertions.assertThrows(IllegalHistogramEncoding.class,
+                () -> Histogram.decode(java.nio.ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5})));
+
+        //values on the left boundary can not exceed count of the first interval.
+        Histogram small = new Histogram(0, 1, 4);
+        small.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+        java.nio.ByteBuffer malformed = java.nio.ByteBuffer.allocate(small.encodedSize());
+        small.encode(malformed);
+        Assertions.assertEquals(1, malformed.get(23));
+        malformed.put(23, (byte) 2);
+        malformed.flip();
+        Assertions.assertThrows(IllegalHistogramEncoding.class, () -> Histogram.decode(malformed));
+    }
+
+    @Test
+    void fileTest() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("histogram", ".txt");
+        try {
+            java.nio.file.Files.write(file, "0.5 1\n-0 +2.25e0\t3.000000000000000001\r\n4E-1 NaN 1e400 .5\n".getBytes());
+            java.util.List<Double> values = new java.util.ArrayList<>();
+            NumberFileReader.read(file, values::add);
+            Assertions.assertEquals(java.util.Arrays.asList(0.5, 1.0, -0.0, 2.25, 3.0, 0.4, Double.NaN,
+                    Double.POSITIVE_INFINITY, 0.5), values);
+
+            histogram.addBatch(file.toString(), Histogram.AppendType.INTERVAL_ONLY);
+            Assertions.assertEquals(7, histogram.count());
+
+            java.nio.file.Files.write(file, "1 2 x3".getBytes());
+            Assertions.assertThrows(NumberFormatException.class,
+                    () -> histogram.addBatch(file.toString(), Histogram.AppendType.INTERVAL_ONLY));
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+        Assertions.assertThrows(java.io.UncheckedIOException.class,
+                () -> histogram.addBatch("resources/missing.txt", Histogram.AppendType.INTERVAL_ONLY));
+    }
+
+    @Test
+    void parallelFileTest() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("histogram", ".txt");
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        try {
+            StringBuilder sb = new StringBuilder();
+            java.util.Random random = new java.util.Random(1);
+            for (int i=0; i<20000; i++){
+                sb.append(random.nextGaussian() * 4 + 2).append(i % 10 == 9 ? '\n' : ' ');
+            }
+            java.nio.file.Files.write(file, sb.toString().getBytes());
+            for (Histogram.AppendType appendType: Histogram.AppendType.values()){
+                Histogram serial = new Histogram(0, 5, 10);
+                Histogram parallel = new Histogram(0, 5, 10);
+                serial.addBatch(file.toString(), appendType);
+                parallel.addBatch(file.toString(), appendType, pool, 1000);
+                Assertions.assertEquals(serial.toString(), parallel.toString());
+                //off-heap partials are closed after merge, result stays usable.
+                try (OffHeapHistogram offHeap = Histogram.offHeap(0, 5, 10)) {
+                    offHeap.addBatch(file.toString(), appendType, pool, 1000);
+                    Assertions.assertEquals(serial.toString(), offHeap.toString());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    @Test
+    void layoutTest(){
+        //exponential intervals: 1, 2, 4, 8, 16.
+        Histogram exponential = Histogram.exponential(1, 16, 4);
+        exponential.addNumber(1, Histogram.AppendType.INTERVAL_ONLY);
+        exponential.addNumber(2, Histogram.AppendType.INTERVAL_ONLY);
+        exponential.addNumber(2.5, Histogram.AppendType.INTERVAL_ONLY);
+        exponential.addNumber(16, Histogram.AppendType.INTERVAL_ONLY);
+        exponential.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2, exponential.count(0));
+        Assertions.assertEquals(1, exponential.count(1));
+        Assertions.assertEquals(1, exponential.count(3));
+        exponential.addNumber(0.2, Histogram.AppendType.EXPAND);
+        exponential.addNumber(100, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(10, exponential.getBins());
+        Assertions.assertEquals(0.125, exponential.getMinH(), 1e-12);
+        Assertions.assertEquals(128, exponential.getMaxH(), 1e-9);
+        Assertions.assertEquals(1, exponential.count(0));
+        Assertions.assertEquals(1, exponential.count(2));
+        Assertions.assertEquals(1, exponential.count(3));
+        Assertions.assertEquals(1, exponential.count(4));
+        Assertions.assertEquals(1, exponential.count(6));
+        Assertions.assertEquals(1, exponential.count(9));
+        Assertions.assertThrows(IllegalIntervalBounds.class, () -> exponential.addNumber(-1, Histogram.AppendType.EXPAND));
+        Assertions.assertThrows(IllegalIntervalBounds.class, () -> Histogram.exponential(0, 1000, 3));
+
+        //log-linear intervals: 16 per power of two for 1 significant digit.
+        Histogram logLinear = Histogram.logLinear(1, 100, 1);
+        Assertions.assertEquals(1, logLinear.getMinH());
+        Assertions.assertEquals(100, logLinear.getMaxH());
+        Assertions.assertEquals(6 * 16 + 9, logLinear.getBins());
+        logLinear.addNumber(1, Histogram.AppendType.INTERVAL_ONLY);
+        logLinear.addNumber(1.0625, Histogram.AppendType.INTERVAL_ONLY);
+        logLinear.addNumber(1.126, Histogram.AppendType.INTERVAL_ONLY);
+        logLinear.addNumber(96.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2, logLinear.count(0));
+        Assertions.assertEquals(1, logLinear.count(2));
+        Assertions.assertEquals(1, logLinear.count(6 * 16 + 8));
+        Assertions.assertEquals(96, logLinear.getInterval(6 * 16 + 8).getFloor());
+        logLinear.addNumber(0.3, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(0.296875, logLinear.getMinH());
+        Assertions.assertEquals(1, logLinear.count(0));
+        Assertions.assertEquals(1, logLinear.count(28));
+        Assertions.assertEquals(1, logLinear.count(29));
+        Assertions.assertEquals(5, logLinear.count());
+
+        //number of log-linear bins is defined by significant digits.
+        Histogram rebinned = logLinear.copy();
+        rebinned.setBins(rebinned.getBins());
+        Assertions.assertThrows(IllegalBinsValue.class, () -> rebinned.setBins(10));
+        Assertions.assertThrows(IllegalBinsValue.class, () -> Histogram.logLinear(1, 100, 1).setBins(10));
+        Assertions.assertEquals(logLinear.toString(), rebinned.toString());
+        Assertions.assertEquals(5, rebinned.count());
+
+        //relative error of any value is bounded by significant digits.
+        Histogram precise = Histogram.logLinear(1e-6, 1e6, 3);
+        java.util.Random random = new java.util.Random(12);
+        for (int i=0; i<10000; i++){
+            double value = Math.exp(random.nextDouble() * 27 - 13.5);
+            int low = 0;
+            int high = precise.getBins() - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (precise.getInterval(middle).getCeil() < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            long before = precise.count(low);
+            precise.addNumber(value, Histogram.AppendType.INTERVAL_ONLY);
+            Interval interval = precise.getInterval(low);
+            Assertions.assertEquals(before + 1, interval.getCount());
+            Assertions.assertTrue((interval.getCeil() - interval.getFloor()) / interval.getFloor() <= 1e-3);
+        }
+
+        //encoding and merge keep layout.
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(logLinear.encodedSize());
+        logLinear.encode(buffer);
+        buffer.flip();
+        Histogram decoded = Histogram.decode(buffer);
+        Assertions.assertEquals(logLinear.toString(), decoded.toString());
+        decoded.merge(logLinear);
+        Assertions.assertEquals(10, decoded.count());
+        Assertions.assertEquals(logLinear.getBins(), decoded.getBins());
+    }
+
+    @Test
+    void sparseTest(){
+        //far outliers do not allocate intervals between them.
+        histogram.addNumber(2.5, Histogram.AppendType.EXPAND);
+        histogram.addNumber(1e9 + 0.5, Histogram.AppendType.EXPAND);
+        histogram.addNumber(-1e9 + 0.5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(2_000_000_001, histogram.getBins());
+        Assertions.assertEquals(3, histogram.count());
+        Assertions.assertEquals(1, histogram.count(0));
+        Assertions.assertEquals(1, histogram.count(1_000_000_002));
+        Assertions.assertEquals(1, histogram.count(2_000_000_000));
+        Assertions.assertEquals(3.5 / 3, histogram.mean(), 1e-6);
+        Assertions.assertEquals(2.5, histogram.median(), 1e-6);
+        Assertions.assertTrue(histogram.encodedSize() < 100);
+        Assertions.assertEquals(2_000_000_001, histogram.range(), 1e-3);
+        String[] lines = histogram.toString().split("\n");
+        Assertions.assertEquals(6, lines.length);
+        Assertions.assertEquals(" ... 1000000001 empty intervals", lines[2]);
+        Assertions.assertEquals(" ... 999999997 empty intervals", lines[4]);
+
+        //infinite values are not expanded to, too far values are rejected.
+        histogram.addNumber(Double.POSITIVE_INFINITY, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(3, histogram.count());
+        Assertions.assertThrows(IllegalIntervalBounds.class, () -> histogram.addNumber(1e300, Histogram.AppendType.EXPAND));
+        Assertions.assertEquals(2_000_000_001, histogram.getBins());
+
+        //merge and subtract work on sparse counts.
+        Histogram copy = Histogram.decode(encoded(histogram));
+        copy.merge(histogram);
+        Assertions.assertEquals(6, copy.count());
+        Assertions.assertEquals(2, copy.count(1_000_000_002));
+        copy.subtract(histogram);
+        Assertions.assertEquals(3, copy.count());
+        Assertions.assertEquals(1, copy.count(1_000_000_002));
+
+        //filled sparse histogram becomes dense with same counts.
+        Histogram wide = new Histogram(0, 100, 100);
+        wide.addNumber(1e6, Histogram.AppendType.EXPAND);
+        for (int i=0; i<1_000_000; i+=3){
+            wide.addNumber(i + 0.5, Histogram.AppendType.INTERVAL_ONLY);
+        }
+        Assertions.assertEquals(333_335, wide.count());
+        Assertions.assertEquals(2, wide.count(999_999));
+        Assertions.assertEquals(0, wide.count(999_998));
+        Assertions.assertEquals(1, wide.count(3));
+    }
+
+    /** Encode histogram into buffer ready for reading.
+     *
+     * @param histogram histogram.
+     * @return buffer.
+     */
+    private static java.nio.ByteBuffer encoded(Histogram histogram){
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(histogram.encodedSize());
+        histogram.encode(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    void quantileTest(){
+        Assertions.assertTrue(Double.isNaN(histogram.quantile(0.5)));
+        for (int i=0; i<5; i++){
+            histogram.addNumber(i + 0.5, Histogram.AppendType.INTERVAL_ONLY);
+        }
+        Assertions.assertArrayEquals(new double[]{0, 1, 2.5, 5}, histogram.quantiles(0, 0.2, 0.5, 1), 1e-12);
+
+        //index is kept up to date by added values and rebuilt after expanding.
+        for (int i=0; i<5; i++){
+            histogram.addNumber(4.5, Histogram.AppendType.INTERVAL_ONLY);
+        }
+        Assertions.assertEquals(4 + 5.0 / 6, histogram.quantile(0.9), 1e-12);
+        histogram.addBatch(new double[]{0.5, 1.5}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(4, histogram.quantile(0.5), 1e-12);
+        histogram.addNumber(-0.5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(-1, histogram.quantile(0), 1e-12);
+        Assertions.assertEquals(3.5, histogram.quantile(6.5 / 13), 1e-12);
+        Assertions.assertThrows(IllegalQuantile.class, () -> histogram.quantile(1.5));
+        Assertions.assertThrows(IllegalQuantile.class, () -> histogram.quantile(Double.NaN));
+
+        //interpolated quantiles are within interval width from exact ones.
+        Histogram uniform = new Histogram(0, 1, 100);
+        java.util.Random random = new java.util.Random(3);
+        double[] values = new double[10000];
+        for (int i=0; i<values.length; i++){
+            values[i] = random.nextDouble();
+            uniform.addNumber(values[i], Histogram.AppendType.INTERVAL_ONLY);
+        }
+        java.util.Arrays.sort(values);
+        for (double q: new double[]{0.01, 0.5, 0.9, 0.99, 0.999}){
+            Assertions.assertEquals(values[(int) (q * values.length) - 1], uniform.quantile(q), 0.01);
+        }
+    }
+
+    @Test
+    void cachedStatisticsTest(){
+        histogram.addBatch(new double[]{0.5, 1.5, 1.5, 4.5}, Histogram.AppendType.INTERVAL_ONLY);
+        String described = histogram.describe();
+        Assertions.assertEquals(described, histogram.describe());
+        Assertions.assertEquals(2, histogram.mean(), 1e-12);
+        Assertions.assertEquals(4, histogram.count());
+
+        //every change of counts drops cached statistics.
+        histogram.addNumber(4.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2.5, histogram.mean(), 1e-12);
+        Assertions.assertEquals(1.5, histogram.median(), 1e-12);
+        Assertions.assertEquals(5, histogram.count());
+        Assertions.assertNotEquals(described, histogram.describe());
+        histogram.addNumber(-2.5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(10.0 / 6, histogram.mean(), 1e-12);
+        Assertions.assertEquals(8, histogram.range(), 1e-12);
+        Histogram ends = new Histogram(0, 10, 10);
+        ends.addBatch(new double[]{0.5, 8.5}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(9, ends.range(), 1e-12);
+        Histogram other = new Histogram(0, 5, 5);
+        other.addNumber(4.5, Histogram.AppendType.INTERVAL_ONLY);
+        histogram.merge(other);
+        Assertions.assertEquals(7, histogram.count());
+        Assertions.assertEquals(14.5 / 7, histogram.mean(), 1e-12);
+        histogram.subtract(other);
+        Assertions.assertEquals(6, histogram.count());
+        Assertions.assertEquals(10.0 / 6, histogram.mean(), 1e-12);
+        histogram.setBins(4);
+        Assertions.assertEquals(6, histogram.count());
+        Assertions.assertEquals(2, histogram.median(), 1e-12);
+    }
+
+    @Test
+    void batchTest(){
+        double[][] ranges = {{0, 5, 7}, {-3, 2, 5}, {0.1, 0.7, 3}, {-1e6, 1e6, 1000}};
+        for (double[] range: ranges) {
+            double minH = range[0];
+            double maxH = range[1];
+            java.util.Random random = new java.util.Random(3);
+            double[] doubles = new double[5000];
+            for (int i=0; i<doubles.length; i++){
+                doubles[i] = i % 100 == 0 ? 0 : random.nextGaussian() * 5 * (maxH - minH);
+            }
+            double[] special = {Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    minH, Math.nextDown(minH), Math.nextUp(minH), maxH, Math.nextDown(maxH), Math.nextUp(maxH)};
+            for (int i = 0; i < special.length; i++) {
+                doubles[7 + 13 * i] = special[i];
+            }
+            float[] floats = new float[doubles.length];
+            int[] ints = new int[doubles.length];
+            for (int i=0; i<doubles.length; i++){
+                floats[i] = (float) doubles[i];
+                ints[i] = (int) Math.round(doubles[i]);
+            }
+            floats[8] = Math.nextUp((float) minH);
+            for (Histogram.AppendType appendType: Histogram.AppendType.values()){
+                Histogram batch = new Histogram(minH, maxH, (int) range[2], true);
+                Histogram single = new Histogram(minH, maxH, (int) range[2], true);
+                batch.addBatch(doubles, appendType);
+                batch.addBatch(floats, appendType);
+                batch.addBatch(ints, appendType);
+                for (double num: doubles){
+                    single.addNumber(num, appendType);
+                }
+                for (float num: floats){
+                    single.addNumber(num, appendType);
+                }
+                for (int num: ints){
+                    single.addNumber(num, appendType);
+                }
+                Assertions.assertEquals(single.getBins(), batch.getBins());
+                Assertions.assertEquals(single.count(), batch.count());
+                Assertions.assertEquals(single.toString(), batch.toString());
+                Assertions.assertEquals(single.getInterval(0).getOnLeft(), batch.getInterval(0).getOnLeft());
+                Assertions.assertEquals(single.centralMoment(2), batch.centralMoment(2), 1e-9 * single.centralMoment(2));
+            }
+        }
+
+        //infinities do not stop EXPAND of the range to finite values.
+        Histogram batch = new Histogram(0, 5, 5);
+        batch.addBatch(new double[]{-2, 7, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(9, batch.getBins());
+        Assertions.assertEquals(2, batch.count());
+    }
+
+    @Test
+    void compactTest(){
+        CompactBinStorage storage = new CompactBinStorage(3);
+        storage.add(1, 255);
+        Assertions.assertEquals(1, storage.width());
+        storage.add(1, 1);
+        Assertions.assertEquals(2, storage.width());
+        storage.add(0, 70000);
+        Assertions.assertEquals(4, storage.width());
+        storage.add(2, 1L << 33);
+        Assertions.assertEquals(8, storage.width());
+        BinStorage grown = storage.grow(2, 1);
+        Assertions.assertArrayEquals(new long[]{0, 0, 70000, 256, 1L << 33, 0},
+                new long[]{grown.get(0), grown.get(1), grown.get(2), grown.get(3), grown.get(4), grown.get(5)});
+        Assertions.assertEquals(70256 + (1L << 33), grown.copy().total());
+
+        //sparse storage returns to its original kind when it fills up.
+        for (BinStorage small : new BinStorage[]{new CompactBinStorage(1 << 17), new DenseBinStorage(1 << 17)}) {
+            BinStorage sparse = small.grow(0, 1 << 20).copy();
+            Assertions.assertTrue(sparse instanceof SparseBinStorage);
+            for (int i = 0; i < sparse.size(); i += SparseBinStorage.BLOCK) {
+                sparse.add(i, 1);
+            }
+            BinStorage filled = sparse.adapted();
+            Assertions.assertEquals(small.getClass(), filled.getClass());
+            Assertions.assertEquals(sparse.total(), filled.total());
+        }
+
+        Histogram compact = Histogram.compact(0, 10, 10);
+        Histogram plain = new Histogram(0, 10, 10);
+        for (int i = 0; i < 70000; i++) {
+            double value = i % 300 == 0 ? 0 : i % 7 + 0.5;
+            compact.addNumber(value, Histogram.AppendType.ADD_TO_EDGE);
+            plain.addNumber(value, Histogram.AppendType.ADD_TO_EDGE);
+        }
+        Assertions.assertEquals(plain.toString(), compact.toString());
+        Assertions.assertEquals(plain.getInterval(0).getOnLeft(), compact.getInterval(0).getOnLeft());
+
+        //counts do not wrap after 2^31 values.
+        long[] counts = new long[10];
+        counts[0] = 3_000_000_000L;
+        counts[9] = 5_000_000_000L;
+        Histogram big = new Histogram(0, 10, new LinearLayout(0, 10, 10), new DenseBinStorage(counts), 1_000_000_000L);
+        compact.merge(big);
+        plain.merge(big);
+        Assertions.assertEquals(8_000_070_000L, compact.count());
+        Assertions.assertEquals(5_000_000_000L, compact.count(9));
+        Assertions.assertEquals(1_000_000_234L, compact.getInterval(0).getOnLeft());
+        Assertions.assertEquals(3_000_010_200L, compact.getInterval(0).getCount());
+
+        compact.addNumber(-5, Histogram.AppendType.EXPAND);
+        plain.addNumber(-5, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(plain.toString(), compact.toString());
+        Assertions.assertEquals(plain.median(), compact.median(), 1e-12);
+        compact.setBins(5);
+        Assertions.assertEquals(plain.count(), compact.count());
+    }
+
+    @Test
+    void offHeapTest(){
+        java.util.Random random = new java.util.Random(19);
+        double[] data = new double[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextGaussian() * 3;
+        }
+        Histogram plain = new Histogram(-1, 1, 8);
+        try (OffHeapHistogram offHeap = Histogram.offHeap(-1, 1, 8)) {
+            for (Histogram histogram : new Histogram[]{plain, offHeap}) {
+                histogram.addBatch(data, Histogram.AppendType.EXPAND);
+                histogram.addNumber(-1, Histogram.AppendType.ADD_TO_EDGE);
+            }
+            Assertions.assertEquals(plain.toString(), offHeap.toString());
+            Assertions.assertEquals(plain.quantile(0.9), offHeap.quantile(0.9), 1e-12);
+            Assertions.assertEquals(plain.centralMoment(2), offHeap.centralMoment(2), 1e-9);
+            Histogram copy = offHeap.copy();
+            offHeap.merge(copy);
+            copy.close();
+            Assertions.assertEquals(2 * plain.count(), offHeap.count());
+            plain.merge(plain.copy());
+            plain.setBins(offHeap.getBins() / 2);
+            offHeap.setBins(offHeap.getBins() / 2);
+            Assertions.assertEquals(plain.toString(), offHeap.toString());
+
+            offHeap.close();
+            Assertions.assertThrows(IllegalStateException.class, () -> offHeap.addNumber(0, Histogram.AppendType.ADD_TO_EDGE));
+        }
+
+        //direct memory is freed at once by close and by growing, not by garbage collector.
+        java.lang.management.BufferPoolMXBean direct = java.lang.management.ManagementFactory
+                .getPlatformMXBeans(java.lang.management.BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct")).findFirst().orElseThrow();
+        long used = direct.getMemoryUsed();
+        OffHeapHistogram big = Histogram.offHeap(0, 1, 1 << 16);
+        Assertions.assertEquals(used + Long.BYTES * (1 << 16), direct.getMemoryUsed());
+        big.addNumber(3, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(used + Long.BYTES * 3 * (1 << 16), direct.getMemoryUsed());
+        big.close();
+        Assertions.assertEquals(used, direct.getMemoryUsed());
+    }
+
+    @Test
+    void rebinTest(){
+        Histogram fine = new Histogram(0, 10, 10);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                fine.addNumber(i + 0.5, Histogram.AppendType.INTERVAL_ONLY);
+            }
+        }
+        fine.addBatch(new double[]{0, 0}, Histogram.AppendType.INTERVAL_ONLY);
+
+        //more bins split counts in halves.
+        fine.setBins(20);
+        Assertions.assertEquals(102, fine.count());
+        Assertions.assertEquals(7, fine.count(0));
+        Assertions.assertEquals(2, fine.getInterval(0).getOnLeft());
+        for (int i = 1; i < 20; i++) {
+            Assertions.assertEquals(5, fine.count(i));
+        }
+
+        //bins that do not nest get proportional shares.
+        fine.setBins(3);
+        Assertions.assertEquals(102, fine.count());
+        Assertions.assertEquals(2, fine.getInterval(0).getOnLeft());
+        for (int i = 0; i < 3; i++) {
+            long share = i == 0 ? 35 : 33;
+            Assertions.assertTrue(Math.abs(fine.count(i) - share) < 2);
+        }
+        Assertions.assertEquals(5, fine.median(), 0.5);
+        fine.setBins(3);
+        Assertions.assertEquals(102, fine.count());
+    }
+
+    @Test
+    void listenerTest() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        Histogram monitored = new Histogram(0, 10, 10);
+        monitored.setListener(metrics);
+        monitored.addNumber(-1, Histogram.AppendType.ADD_TO_EDGE);
+        monitored.addNumber(20, Histogram.AppendType.INTERVAL_ONLY);
+        monitored.addBatch(new double[]{-5, 5, 15, Double.NaN}, Histogram.AppendType.ADD_TO_EDGE);
+        monitored.addBatch(new int[]{1, 11}, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(3, metrics.getClampedValues());
+        Assertions.assertEquals(3, metrics.getDroppedValues());
+        Assertions.assertEquals(2, metrics.getBatches());
+        Assertions.assertEquals(4, metrics.getBatchValues());
+        Assertions.assertTrue(metrics.getBatchRate() > 0);
+
+        monitored.addNumber(12, Histogram.AppendType.EXPAND);
+        monitored.addNumber(Double.POSITIVE_INFINITY, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(2, metrics.getAddedBins());
+        Assertions.assertEquals(4, metrics.getDroppedValues());
+        monitored.setBins(6);
+        Assertions.assertEquals(1, metrics.getRebinnings());
+
+        //values clamped and dropped by partial histograms of parallel file reading are reported once.
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("values", ".txt");
+        try {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                text.append(i % 10 == 0 ? -3 : i % 10 == 1 ? 30 : 5).append('\n');
+            }
+            java.nio.file.Files.writeString(file, text);
+            Histogram parallel = new Histogram(0, 10, 10);
+            HistogramMetrics partials = new HistogramMetrics();
+            parallel.setListener(partials);
+            parallel.addBatch(file.toString(), Histogram.AppendType.ADD_TO_EDGE, new java.util.concurrent.ForkJoinPool(4), 256);
+            Assertions.assertEquals(200, partials.getClampedValues());
+            Assertions.assertEquals(1000, parallel.count());
+            parallel.addBatch(file.toString(), Histogram.AppendType.INTERVAL_ONLY, new java.util.concurrent.ForkJoinPool(4), 256);
+            Assertions.assertEquals(200, partials.getDroppedValues());
+            Assertions.assertEquals(1800, parallel.count());
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+
+        javax.management.ObjectName name = metrics.register("histogram:type=HistogramMetrics,name=listenerTest");
+        try {
+            javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            Assertions.assertEquals(3L, server.getAttribute(name, "ClampedValues"));
+            server.invoke(name, "reset", null, null);
+            Assertions.assertEquals(0, metrics.getClampedValues());
+        } finally {
+            java.lang.management.ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+
+        monitored.setListener(null);
+        monitored.addNumber(-1, Histogram.AppendType.ADD_TO_EDGE);
+        Assertions.assertEquals(0, metrics.getClampedValues());
+    }
+}
@@ -7,15 +7,15 @@ import exceptions.WrongIntervalElement;
 public class Interval{
     private double floor; // lower boundary of interval
     private double ceil; // upper boundary
-    private int count; // Number of values in interval
+    private long count; // Number of values in interval
     private boolean isFirst; // define whether [,] or (,] interval
-    private int onLeft; // if isFirst number of values on left boundary
+    private long onLeft; // if isFirst number of values on left boundary
 
     /** Getter for onLeft.
      *
      * @return number of values on left boundary.
      */
-    public int getOnLeft() {
+    public long getOnLeft() {
         return onLeft;
     }
 
@@ -34,6 +34,21 @@ public class Interval{
         this.isFirst = false;
     }
 
+    /** Constructor for filled Interval.
+     *
+     * @param floor lower boundary.
+     * @param ceil upper boundary.
+     * @param count number of values in interval.
+     * @param isFirst whether interval is [,].
+     * @param onLeft number of values on left boundary.
+     */
+    Interval(double floor, double ceil, long count, boolean isFirst, long onLeft) {
+        this(floor, ceil);
+        this.count = count;
+        this.isFirst = isFirst;
+        this.onLeft = onLeft;
+    }
+
     /** Change interval type from (,] to [,].
      *
      */
@@ -110,7 +125,7 @@ public class Interval{
      *
      * @param value amount of added elements.
      */
-    void addElements(int value){
+    void addElements(long value){
         this.count += value;
     }
 
@@ -118,7 +133,7 @@ public class Interval{
      *
      * @return Number of values in interval
      */
-    public int getCount() {
+    public long getCount() {
         return count;
     }
 
@@ -126,7 +141,7 @@ public class Interval{
      *
      * @param count Number of values in interval.
      */
-    void setCount(int count) {
+    void setCount(long count) {
         this.count = count;
     }
 
@@ -0,0 +1,247 @@
+import exceptions.IllegalHistogramEncoding;
+
+import java.nio.ByteBuffer;
+
+/** Boundaries of equal intervals of Histogram.
+ *
+ * Edges are not stored, interval i is (origin + width * (i - shift); origin + width * (i + 1 - shift)],
+ * where 'shift' is number of intervals added to the left of 'origin'. First interval also contains its floor.
+ */
+class LinearLayout extends BinLayout {
+    private static final int FIXED_BITS = 20; // Bits of fraction of index in fixed point.
+    private static final long FIXED_ONE = 1L << FIXED_BITS; // One interval in fixed point.
+    private static final long CLOSE = 1L << 32; // Bit of index code set for values close to boundary.
+
+    private final double origin; // Lower boundary at the moment intervals were generated.
+    private final double width; // Size of single interval.
+    private final int shift; // Number of intervals added to the left of 'origin'.
+
+    /** Constructor for LinearLayout.
+     *
+     * @param minH lower boundary.
+     * @param maxH upper boundary.
+     * @param bins number of intervals.
+     */
+    LinearLayout(double minH, double maxH, int bins) {
+        this(minH, (maxH - minH) / bins, 0, bins);
+    }
+
+    private LinearLayout(double origin, double width, int shift, int bins) {
+        super(bins);
+        this.origin = origin;
+        this.width = width;
+        this.shift = shift;
+    }
+
+    @Override
+    double floor(int index) {
+        return this.origin + this.width * (index - this.shift);
+    }
+
+    /** Index of the interval that contains value.
+     *
+     * Guess is computed directly from (value - origin) / width.
+     *
+     * @param value value to look up.
+     * @return index of interval or -1 if no interval contains value.
+     */
+    @Override
+    int index(double value) {
+        return locate(value, (value - this.origin) / this.width + this.shift);
+    }
+
+    /** Indices of intervals for block of values without virtual calls and mispredicted branches.
+     *
+     * (value - floor(0)) / width is converted once to fixed point with FIXED_BITS bits of fraction:
+     * integer part is index of interval, fraction shows whether value is far enough from boundaries
+     * for rounding errors to matter, see tolerance(). Values close to a boundary, NaN and values on
+     * edges are found again in the second pass, so result is the same as of
+     * index(double, double, double, boolean). Range and edge checks are made on integers.
+     */
+    @Override
+    int indices(double[] values, int from, int to, double min, double max, boolean toEdge, int[] indices) {
+        long tolerance = tolerance(min, max);
+        if (tolerance < 0) {
+            return super.indices(values, from, to, min, max, toEdge, indices);
+        }
+        long edge = toEdge ? 1 : 0;
+        double scale = FIXED_ONE / this.width;
+        long onLeft = 0;
+        long close = 0;
+        for (int i = from; i < to; i++) {
+            long code = quickIndex(values[i], min, scale, edge, tolerance);
+            indices[i - from] = (int) code;
+            onLeft += code >>> 33;
+            close |= code;
+        }
+        if ((close & CLOSE) != 0) {
+            for (int i = from; i < to; i++) {
+                if (indices[i - from] != -2) {
+                    continue;
+                }
+                double value = values[i];
+                if (value > min && value < max) {
+                    indices[i - from] = closeIndex(value, min, scale);
+                } else {
+                    int index = index(value, min, max, toEdge);
+                    indices[i - from] = index;
+                    onLeft += value <= min && index == 0 ? 1 : 0;
+                }
+            }
+        }
+        return (int) onLeft;
+    }
+
+    /** Distance from boundary in fixed point units, closer values are compared with boundary.
+     *
+     * Let M be the biggest magnitude of boundaries. Computed floor(i) differs from the exact line
+     * origin + width * (i - shift) by at most 1.5 ulp(M): one rounding of product and one of sum.
+     * Computed (value - min) * scale differs from the exact position of value in intervals by at most
+     * ulp(M) / width for subtraction and 2^-52 * bins for rounding of scale and of product.
+     * So the position of a value relative to any boundary is wrong by less than
+     * error = 4 ulp(M) / width + 2^-52 * bins intervals, and 2 more fixed point units cover truncation
+     * to long. Fraction farther than that from a whole number gives the same interval as comparisons
+     * with computed boundaries. Error is kept below 1/16 of interval, so a close value is close
+     * to exactly one boundary, see closeIndex().
+     *
+     * @param min lower boundary of histogram.
+     * @param max upper boundary of histogram.
+     * @return tolerance, or -1 if histogram is wider than layout or intervals are too narrow for fixed point.
+     */
+    private long tolerance(double min, double max) {
+        double magnitude = Math.max(Math.abs(min), Math.abs(max));
+        double error = 4 * Math.ulp(magnitude) / this.width + bins() * 0x1p-52;
+        if (min != floor(0) || max != floor(bins()) || !(error < 0x1p-4)) {
+            return -1;
+        }
+        return (long) Math.ceil(error * FIXED_ONE) + 2;
+    }
+
+    /** Index of interval for value in range from floor(0) to floor(bins()).
+     *
+     * All branches are replaced by sign bits: 'close' is 1 if fraction is within tolerance of
+     * a whole number, 'below' and 'above' are 1 if index is out of layout. Index out of layout is
+     * clamped to the edge, then turned to -1 if value is not counted or to -2 if value is close.
+     * NaN converts to 0, so it is close and goes to the second pass; infinities saturate long
+     * and are out of range.
+     *
+     * @param value value.
+     * @param min lower boundary of histogram, equal to floor(0).
+     * @param scale FIXED_ONE / width.
+     * @param edge 1 if values out of range go to edge intervals, 0 otherwise.
+     * @param tolerance result of tolerance().
+     * @return index in lower 32 bits: -1 if value is not counted, -2 if value is close to boundary;
+     *         CLOSE bit is set for close values and the next one if value is counted on the left boundary.
+     */
+    private long quickIndex(double value, double min, double scale, long edge, long tolerance) {
+        long fixed = (long) ((value - min) * scale);
+        long index = fixed >> FIXED_BITS;
+        long close = (((fixed + tolerance) & (FIXED_ONE - 1)) - 2 * tolerance) >>> 63;
+        long below = index >>> 63;
+        long above = (bins() - 1 - index) >>> 63;
+        long out = below | above;
+        index = (index & (out - 1)) | ((bins() - 1) & -above);
+        index = (index | -(out & ~edge | close)) - close;
+        return (index & 0xFFFFFFFFL) | close << 32 | (below & edge & ~close) << 33;
+    }
+
+    /** Index of interval for value in range close to boundary, see quickIndex().
+     *
+     * Value is close to only one boundary, so one comparison with it gives the interval.
+     *
+     * @param value value marked by quickIndex() as close to boundary, strictly inside of range.
+     * @param min lower boundary of histogram, equal to floor(0).
+     * @param scale FIXED_ONE / width.
+     * @return index of interval.
+     */
+    private int closeIndex(double value, double min, double scale) {
+        long fixed = (long) ((value - min) * scale);
+        int boundary = (int) ((fixed + FIXED_ONE / 2) >> FIXED_BITS);
+        return boundary - (value <= floor(boundary) ? 1 : 0);
+    }
+
+    @Override
+    int addedToLeft(double value) {
+        double estimate = Math.max(1, Math.ceil((floor(0) - value) / this.width));
+        if (!(estimate <= MAX_BINS - bins())) {
+            return Integer.MAX_VALUE;
+        }
+        int added = (int) estimate;
+        while (floor(-added) > value) {
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    int addedToRight(double value) {
+        double estimate = Math.max(1, Math.ceil((value - ceil(bins() - 1)) / this.width));
+        if (!(estimate <= MAX_BINS - bins())) {
+            return Integer.MAX_VALUE;
+        }
+        int added = (int) estimate;
+        while (ceil(bins() - 1 + added) < value) {
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    int alignedOffset(BinLayout layout) {
+        if (!(layout instanceof LinearLayout)) {
+            return Integer.MIN_VALUE;
+        }
+        LinearLayout other = (LinearLayout) layout;
+        if (this.origin == other.origin && this.width == other.width) {
+            return this.shift - other.shift;
+        }
+        if (Math.abs(this.width - other.width) > this.width * 1e-9) {
+            return Integer.MIN_VALUE;
+        }
+        double offset = (other.floor(0) - floor(0)) / this.width;
+        long rounded = Math.round(offset);
+        if (Math.abs(offset - rounded) > 1e-6 || Math.abs(rounded) > Integer.MAX_VALUE / 2) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) rounded;
+    }
+
+    @Override
+    BinLayout grow(int left, int right) {
+        return new LinearLayout(this.origin, this.width, this.shift + left, bins() + left + right);
+    }
+
+    @Override
+    BinLayout resized(double minH, double maxH, int bins) {
+        return new LinearLayout(minH, maxH, bins);
+    }
+
+    @Override
+    int encodedSize() {
+        return 1 + 2 * Double.BYTES + VarInts.size(this.shift);
+    }
+
+    @Override
+    void encode(ByteBuffer buffer) {
+        buffer.put(LINEAR);
+        buffer.putDouble(this.origin);
+        buffer.putDouble(this.width);
+        VarInts.put(buffer, this.shift);
+    }
+
+    /** Read parameters written by encode().
+     *
+     * @param buffer buffer after layout type.
+     * @param bins number of intervals.
+     * @return layout.
+     */
+    static LinearLayout decode(ByteBuffer buffer, int bins) {
+        double origin = buffer.getDouble();
+        double width = buffer.getDouble();
+        long shift = VarInts.get(buffer);
+        if (!Double.isFinite(origin) || !(width > 0) || shift > Integer.MAX_VALUE) {
+            throw new IllegalHistogramEncoding("Invalid layout of encoded histogram.");
+        }
+        return new LinearLayout(origin, width, (int) shift, bins);
+    }
+}
@@ -0,0 +1,195 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalIntervalBounds;
+
+import java.nio.ByteBuffer;
+
+/** Boundaries of log-linear intervals of Histogram.
+ *
+ * Every power of two [2^k; 2^(k+1)) is split into 'subBuckets' equal intervals, where 'subBuckets'
+ * is the smallest power of two not less than 10^significantDigits, so relative width of interval
+ * is at most 10^-significantDigits. Intervals are numbered globally by k * subBuckets + j, which
+ * gives index of value directly from its exponent and mantissa, and all edges are exact doubles.
+ * Only positive normal values are supported.
+ */
+class LogLinearLayout extends BinLayout {
+    static final int MAX_DIGITS = 6; // Biggest number of significant digits.
+
+    private final int digits; // Number of significant digits.
+    private final int subBuckets; // Number of intervals in every power of two.
+    private final int first; // Global number of the first interval.
+
+    /** Constructor for LogLinearLayout.
+     *
+     * @param minH lower boundary, positive, rounded down to the edge of interval.
+     * @param maxH upper boundary, rounded up to the edge of interval.
+     * @param digits number of significant digits, from 0 to MAX_DIGITS.
+     */
+    LogLinearLayout(double minH, double maxH, int digits) {
+        this(digits, globalIndex(minH, subBuckets(digits)), binsBetween(minH, maxH, digits));
+    }
+
+    private LogLinearLayout(int digits, int first, int bins) {
+        super(bins);
+        this.digits = digits;
+        this.subBuckets = subBuckets(digits);
+        this.first = first;
+    }
+
+    /** Number of intervals of layout from minH to maxH.
+     *
+     * @param minH lower boundary.
+     * @param maxH upper boundary.
+     * @param digits number of significant digits.
+     * @return number of intervals.
+     */
+    private static int binsBetween(double minH, double maxH, int digits) {
+        if (!(minH >= Double.MIN_NORMAL) || !(minH < maxH) || Double.isInfinite(maxH)) {
+            throw new IllegalIntervalBounds("Log-linear intervals need positive 'floor' and finite 'ceil' bigger than it.");
+        }
+        int subBuckets = subBuckets(digits);
+        return ceilIndex(maxH, subBuckets) - globalIndex(minH, subBuckets) + 1;
+    }
+
+    /** Number of intervals in every power of two.
+     *
+     * @param digits number of significant digits.
+     * @return power of two.
+     */
+    private static int subBuckets(int digits) {
+        if (digits < 0 || digits > MAX_DIGITS) {
+            throw new IllegalBinsValue("Number of significant digits should be from 0 to " + MAX_DIGITS + ".");
+        }
+        int power = 1;
+        for (int i = 0; i < digits; i++) {
+            power *= 10;
+        }
+        return Integer.highestOneBit(power) == power ? power : Integer.highestOneBit(power) << 1;
+    }
+
+    /** Global number of interval with floor not bigger than value.
+     *
+     * @param value positive normal value.
+     * @param subBuckets number of intervals in every power of two.
+     * @return global number.
+     */
+    private static int globalIndex(double value, int subBuckets) {
+        int exponent = Math.getExponent(value);
+        return exponent * subBuckets + (int) ((Math.scalb(value, -exponent) - 1) * subBuckets);
+    }
+
+    /** Global number of interval with ceil not lower than value.
+     *
+     * @param value positive normal value.
+     * @param subBuckets number of intervals in every power of two.
+     * @return global number.
+     */
+    private static int ceilIndex(double value, int subBuckets) {
+        int exponent = Math.getExponent(value);
+        double scaled = (Math.scalb(value, -exponent) - 1) * subBuckets;
+        int index = exponent * subBuckets + (int) scaled;
+        return scaled == (int) scaled ? index - 1 : index;
+    }
+
+    @Override
+    double floor(int index) {
+        int global = this.first + index;
+        int exponent = Math.floorDiv(global, this.subBuckets);
+        return Math.scalb(1 + (double) Math.floorMod(global, this.subBuckets) / this.subBuckets, exponent);
+    }
+
+    /** Index of the interval that contains value.
+     *
+     * Index is computed exactly from exponent and mantissa of value, without correction.
+     *
+     * @param value value to look up.
+     * @return index of interval or -1 if no interval contains value.
+     */
+    @Override
+    int index(double value) {
+        if (!(value >= Double.MIN_NORMAL) || Double.isInfinite(value)) {
+            return -1;
+        }
+        int index = ceilIndex(value, this.subBuckets) - this.first;
+        if (index == -1 && value == floor(0)) {
+            return 0;
+        }
+        return index >= 0 && index < bins() ? index : -1;
+    }
+
+    @Override
+    int addedToLeft(double value) {
+        if (!(value >= Double.MIN_NORMAL)) {
+            throw new IllegalIntervalBounds("Log-linear intervals can not contain zero, negative or subnormal values.");
+        }
+        long added = (long) this.first - globalIndex(value, this.subBuckets);
+        return added <= MAX_BINS - bins() ? (int) added : Integer.MAX_VALUE;
+    }
+
+    @Override
+    int addedToRight(double value) {
+        if (Double.isInfinite(value)) {
+            throw new IllegalIntervalBounds("Log-linear intervals can not contain infinite values.");
+        }
+        long added = (long) ceilIndex(value, this.subBuckets) - this.first - bins() + 1;
+        return added <= MAX_BINS - bins() ? (int) added : Integer.MAX_VALUE;
+    }
+
+    @Override
+    int alignedOffset(BinLayout layout) {
+        if (!(layout instanceof LogLinearLayout) || ((LogLinearLayout) layout).subBuckets != this.subBuckets) {
+            return Integer.MIN_VALUE;
+        }
+        return ((LogLinearLayout) layout).first - this.first;
+    }
+
+    @Override
+    BinLayout grow(int left, int right) {
+        return new LogLinearLayout(this.digits, this.first - left, bins() + left + right);
+    }
+
+    /** Layout with same significant digits over new boundaries.
+     *
+     * Number of log-linear intervals is defined by significant digits, so it can not be changed.
+     *
+     * @param minH lower boundary.
+     * @param maxH upper boundary.
+     * @param bins number of intervals, same as of this layout.
+     * @return new layout.
+     * @throws IllegalBinsValue if number of intervals differs.
+     */
+    @Override
+    BinLayout resized(double minH, double maxH, int bins) {
+        if (bins != bins()) {
+            throw new IllegalBinsValue("Number of log-linear 'bins' is defined by significant digits and can not be changed.");
+        }
+        return new LogLinearLayout(minH, maxH, this.digits);
+    }
+
+    @Override
+    int encodedSize() {
+        return 2 + Integer.BYTES;
+    }
+
+    @Override
+    void encode(ByteBuffer buffer) {
+        buffer.put(LOG_LINEAR);
+        buffer.put((byte) this.digits);
+        buffer.putInt(this.first);
+    }
+
+    /** Read parameters written by encode().
+     *
+     * @param buffer buffer after layout type.
+     * @param bins number of intervals.
+     * @return layout.
+     */
+    static LogLinearLayout decode(ByteBuffer buffer, int bins) {
+        int digits = buffer.get();
+        int first = buffer.getInt();
+        if (digits < 0 || digits > MAX_DIGITS) {
+            throw new IllegalHistogramEncoding("Invalid layout of encoded histogram.");
+        }
+        return new LogLinearLayout(digits, first, bins);
+    }
+}
@@ -0,0 +1,469 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalIntervalBounds;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** BinStorage with counts in memory-mapped file, so they survive restart of process.
+ *
+ * File starts with magic, version and generation of header, then two slots of header: boundaries,
+ * number of bins, position of the first count, number of values on the left boundary and layout
+ * of intervals. Parity of generation selects current slot. Header takes 144 bytes, 16 bytes before
+ * slots and 64 bytes per slot. Counts of intervals follow as big-endian longs with free space on both ends.
+ *
+ * Growing never changes current intervals: new intervals are zeroed, counts are copied to a new place
+ * if there is no room, other slot is written, then changes are forced to storage device and generation
+ * is switched last. So after a crash file has either old or new intervals, and reader of other process
+ * reads header again if generation changed while it read. Values on the left boundary of the first
+ * interval are kept in header and not in its count, so they move to interval added to the left
+ * without changing counts of old intervals.
+ * File only grows: intervals are never removed, and space of counts left behind by a move is not
+ * reused or truncated, as old counts must stay valid until the switch. Histogram with fewer intervals
+ * or smaller file needs a new file.
+ */
+class MappedBinStorage extends BinStorage {
+    private static final int MAGIC = 0x48535446; // First bytes of histogram file.
+    private static final byte VERSION = 1; // Version of file format.
+    static final int GENERATION = 8; // Position of generation of header.
+    private static final int SLOTS = 16; // Position of the first slot of header.
+    private static final int SLOT = 64; // Size of slot of header.
+    private static final int MIN_H = 0; // Position of lower boundary in slot.
+    private static final int MAX_H = 8; // Position of upper boundary in slot.
+    private static final int BINS = 16; // Position of number of bins in slot.
+    private static final int HEAD = 20; // Position of index of the first count in slot.
+    private static final int ON_LEFT = 24; // Position of number of values on the left boundary in slot.
+    private static final int LAYOUT = 32; // Position of encoded layout in slot.
+    static final int HEADER = SLOTS + 2 * SLOT; // Size of header, counts start after it.
+    static final int MAX_SIZE = (Integer.MAX_VALUE - HEADER) / Long.BYTES; // Biggest number of counts in file.
+
+    private final Path file; // Mapped file.
+    private final FileChannel channel; // Channel of mapped file.
+    private MappedByteBuffer buffer; // Mapping of whole file, null after close.
+    private LongBuffer counts; // Counts of intervals with free space on both ends.
+    private long generation; // Generation of header that fields below were read from.
+    private double minH; // Lower histogram boundary.
+    private double maxH; // Upper histogram boundary.
+    private BinLayout layout; // Boundaries of intervals.
+    private int head; // Index of the first interval in 'counts'.
+    private int size; // Number of intervals.
+
+    /** Open histogram file or create it if it does not exist or is empty.
+     *
+     * @param file path to file.
+     * @param minH Lower histogram boundary of a new file.
+     * @param maxH Upper histogram boundary of a new file.
+     * @param layout intervals of a new file, existing file keeps its own.
+     * @throws UncheckedIOException if file can not be mapped.
+     */
+    MappedBinStorage(Path file, double minH, double maxH, BinLayout layout) {
+        if (layout.bins() > MAX_SIZE) {
+            throw new IllegalBinsValue("Mapped histogram can not have more than " + MAX_SIZE + " 'bins'.");
+        }
+        this.file = file;
+        this.channel = open(file);
+        try {
+            if (fileSize() == 0) {
+                create(minH, maxH, layout);
+            } else {
+                readHeader();
+            }
+        } catch (RuntimeException e) {
+            closeChannel();
+            throw e;
+        }
+    }
+
+    /** Open existing histogram file.
+     *
+     * @param file path to file.
+     * @throws UncheckedIOException if file can not be mapped.
+     * @throws IllegalHistogramEncoding if file does not contain histogram.
+     */
+    MappedBinStorage(Path file) {
+        this.file = file;
+        this.channel = open(file);
+        try {
+            readHeader();
+        } catch (RuntimeException e) {
+            closeChannel();
+            throw e;
+        }
+    }
+
+    /** Open channel for reading and writing.
+     *
+     * @param file path to file.
+     * @return channel.
+     */
+    private static FileChannel open(Path file) {
+        try {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not open histogram file " + file + ".", e);
+        }
+    }
+
+    /** Write empty histogram to empty file, magic is written last.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout intervals.
+     */
+    private void create(double minH, double maxH, BinLayout layout) {
+        int bins = layout.bins();
+        map(bins);
+        for (int i = 0; i < bins; i++) {
+            this.counts.put(i, 0);
+        }
+        writeSlot(0, minH, maxH, layout, 0, 0);
+        this.buffer.putLong(GENERATION, 0);
+        this.buffer.force();
+        this.buffer.putInt(0, MAGIC);
+        this.buffer.put(4, VERSION);
+        this.buffer.force();
+        this.generation = 0;
+        this.minH = minH;
+        this.maxH = maxH;
+        this.layout = layout;
+        this.head = 0;
+        this.size = bins;
+    }
+
+    /** Map file with room for counts, file is extended if it is smaller.
+     *
+     * @param capacity number of counts.
+     */
+    private void map(int capacity) {
+        try {
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * Long.BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not map histogram file " + this.file + ".", e);
+        }
+        this.counts = this.buffer.slice(HEADER, capacity * Long.BYTES).asLongBuffer();
+    }
+
+    /** Size of file.
+     *
+     * @return size in bytes.
+     */
+    private long fileSize() {
+        try {
+            return this.channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read histogram file " + this.file + ".", e);
+        }
+    }
+
+    /** Map file again if its size changed.
+     *
+     * @return number of counts in file.
+     */
+    private int remap() {
+        long size = fileSize();
+        if (size < HEADER || (size - HEADER) % Long.BYTES != 0 || (size - HEADER) / Long.BYTES > MAX_SIZE) {
+            throw new IllegalHistogramEncoding("File " + this.file + " does not contain histogram.");
+        }
+        int capacity = (int) ((size - HEADER) / Long.BYTES);
+        if (this.counts == null || this.counts.capacity() != capacity) {
+            map(capacity);
+        }
+        return capacity;
+    }
+
+    /** Position of slot of header.
+     *
+     * @param generation generation of header.
+     * @return position in file.
+     */
+    private static int slot(long generation) {
+        return SLOTS + (int) (generation & 1) * SLOT;
+    }
+
+    /** Read current slot of header, again if generation is switched while reading.
+     *
+     */
+    private void readHeader() {
+        remap();
+        if (this.buffer.getInt(0) != MAGIC || this.buffer.get(4) != VERSION) {
+            throw new IllegalHistogramEncoding("File " + this.file + " does not contain histogram.");
+        }
+        while (true) {
+            long generation = this.buffer.getLong(GENERATION);
+            int capacity = remap();
+            int slot = slot(generation);
+            double minH = this.buffer.getDouble(slot + MIN_H);
+            double maxH = this.buffer.getDouble(slot + MAX_H);
+            int bins = this.buffer.getInt(slot + BINS);
+            int head = this.buffer.getInt(slot + HEAD);
+            long onLeft = this.buffer.getLong(slot + ON_LEFT);
+            byte[] layout = new byte[SLOT - LAYOUT];
+            this.buffer.get(slot + LAYOUT, layout);
+            if (this.buffer.getLong(GENERATION) != generation) {
+                continue;
+            }
+            if (!(minH < maxH) || bins <= 0 || head < 0 || head > capacity - bins || onLeft < 0) {
+                throw new IllegalHistogramEncoding("Invalid header of histogram file " + this.file + ".");
+            }
+            this.layout = BinLayout.decode(ByteBuffer.wrap(layout), bins);
+            this.generation = generation;
+            this.minH = minH;
+            this.maxH = maxH;
+            this.head = head;
+            this.size = bins;
+            return;
+        }
+    }
+
+    /** Write slot of header for generation.
+     *
+     * @param generation generation of header.
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout intervals.
+     * @param head index of the first interval in counts.
+     * @param onLeft number of values on the left boundary of the first interval.
+     */
+    private void writeSlot(long generation, double minH, double maxH, BinLayout layout, int head, long onLeft) {
+        int slot = slot(generation);
+        this.buffer.putDouble(slot + MIN_H, minH);
+        this.buffer.putDouble(slot + MAX_H, maxH);
+        this.buffer.putInt(slot + BINS, layout.bins());
+        this.buffer.putInt(slot + HEAD, head);
+        this.buffer.putLong(slot + ON_LEFT, onLeft);
+        layout.encode(this.buffer.slice(slot + LAYOUT, SLOT - LAYOUT));
+    }
+
+    /** Read header again if other process switched it.
+     *
+     * @return true if header was read again.
+     */
+    boolean reload() {
+        if (buffer().getLong(GENERATION) == this.generation) {
+            return false;
+        }
+        readHeader();
+        return true;
+    }
+
+    /** Mapping of file.
+     *
+     * @return buffer.
+     * @throws IllegalStateException if storage is closed.
+     */
+    private MappedByteBuffer buffer() {
+        MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) {
+            throw new IllegalStateException("Histogram file " + this.file + " is closed.");
+        }
+        return buffer;
+    }
+
+    /** Getter for minH.
+     *
+     * @return Lower boundary of histogram, as of the last read header.
+     */
+    double getMinH() {
+        return this.minH;
+    }
+
+    /** Getter for maxH.
+     *
+     * @return Upper boundary of histogram, as of the last read header.
+     */
+    double getMaxH() {
+        return this.maxH;
+    }
+
+    /** Getter for layout.
+     *
+     * @return boundaries of intervals, as of the last read header.
+     */
+    BinLayout getLayout() {
+        return this.layout;
+    }
+
+    /** Number of values on the left boundary of the first interval.
+     *
+     * @return number of values.
+     */
+    long getOnLeft() {
+        return buffer().getLong(slot(this.generation) + ON_LEFT);
+    }
+
+    /** Copy of intervals and counts, counts are copied again if other process switched header.
+     *
+     * @return histogram on heap.
+     */
+    Histogram snapshot() {
+        reload();
+        while (true) {
+            long[] copy = new long[this.size];
+            this.counts.get(this.head, copy);
+            long onLeft = getOnLeft();
+            copy[0] += onLeft;
+            if (!reload()) {
+                return new Histogram(this.minH, this.maxH, this.layout, new DenseBinStorage(copy), onLeft);
+            }
+        }
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    @Override
+    long get(int index) {
+        long count = this.counts.get(this.head + index);
+        return index == 0 ? count + getOnLeft() : count;
+    }
+
+    @Override
+    void add(int index, long delta) {
+        int i = this.head + index;
+        this.counts.put(i, this.counts.get(i) + delta);
+    }
+
+    @Override
+    void increment(int[] indices, int length) {
+        LongBuffer counts = this.counts;
+        int head = this.head;
+        for (int i = 0; i < length; i++) {
+            int j = head + indices[i];
+            counts.put(j, counts.get(j) + 1);
+        }
+    }
+
+    /** Move values from count of the first interval to its left boundary in header.
+     *
+     * @param count number of values, already added to the first interval.
+     */
+    @Override
+    void addOnLeft(long count) {
+        MappedByteBuffer buffer = buffer();
+        add(0, -count);
+        int position = slot(this.generation) + ON_LEFT;
+        buffer.putLong(position, buffer.getLong(position) + count);
+    }
+
+    /** Nothing to do, grow() moves values on the left boundary with the same switch of header.
+     *
+     * @param index index of the interval.
+     * @param count number of values on its left boundary.
+     */
+    @Override
+    void moveOnLeft(int index, long count) {
+    }
+
+    /** Add empty intervals to both ends of storage, amortized O(1) per interval.
+     *
+     * Old counts stay in place until generation is switched. If there is no room, file is extended
+     * and counts are copied after the end of the old file, so they never overlap old ones.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return this storage.
+     */
+    @Override
+    BinStorage grow(int left, int right) {
+        MappedByteBuffer buffer = buffer();
+        if (left > MAX_SIZE - this.size - right) {
+            throw new IllegalIntervalBounds("Can not expand mapped histogram, too many intervals.");
+        }
+        int newSize = this.size + left + right;
+        int newHead = this.head - left;
+        int capacity = this.counts.capacity();
+        if (left > this.head || this.head + this.size + right > capacity) {
+            long newCapacity = Math.min(MAX_SIZE, capacity + (long) Math.max(capacity, newSize));
+            if (newCapacity - capacity < newSize) {
+                throw new IllegalIntervalBounds("Can not expand mapped histogram, too many intervals.");
+            }
+            map((int) newCapacity);
+            buffer = this.buffer;
+            newHead = capacity + (int) ((newCapacity - capacity - newSize) / 2);
+            this.counts.put(newHead + left, this.counts.duplicate(), this.head, this.size);
+        }
+        for (int i = newHead; i < newHead + left; i++) {
+            this.counts.put(i, 0);
+        }
+        for (int i = newHead + left + this.size; i < newHead + newSize; i++) {
+            this.counts.put(i, 0);
+        }
+        BinLayout layout = this.layout.grow(left, right);
+        double minH = left > 0 ? layout.floor(0) : this.minH;
+        double maxH = right > 0 ? layout.ceil(newSize - 1) : this.maxH;
+        long onLeft = getOnLeft();
+        if (left > 0) {
+            this.counts.put(newHead + left - 1, onLeft);
+            onLeft = 0;
+        }
+        long generation = this.generation + 1;
+        writeSlot(generation, minH, maxH, layout, newHead, onLeft);
+        buffer.force();
+        buffer.putLong(GENERATION, generation);
+        buffer.force();
+        this.generation = generation;
+        this.minH = minH;
+        this.maxH = maxH;
+        this.layout = layout;
+        this.head = newHead;
+        this.size = newSize;
+        return this;
+    }
+
+    @Override
+    void clear() {
+        for (int i = this.head; i < this.head + this.size; i++) {
+            this.counts.put(i, 0);
+        }
+        buffer().putLong(slot(this.generation) + ON_LEFT, 0);
+    }
+
+    /** Copy of counts on heap.
+     *
+     * @return dense storage.
+     */
+    @Override
+    BinStorage copy() {
+        long[] copy = new long[this.size];
+        this.counts.get(this.head, copy);
+        copy[0] += getOnLeft();
+        return new DenseBinStorage(copy);
+    }
+
+    /** Write changed pages of file to storage device.
+     *
+     */
+    void force() {
+        buffer().force();
+    }
+
+    /** Close file, storage can not be used after that.
+     *
+     * Mapping is released when it is collected.
+     */
+    @Override
+    void close() {
+        closeChannel();
+        this.buffer = null;
+        this.counts = null;
+    }
+
+    /** Close channel of file.
+     *
+     */
+    private void closeChannel() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not close histogram file " + this.file + ".", e);
+        }
+    }
+}
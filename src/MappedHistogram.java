@@ -0,0 +1,194 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalIntervalBounds;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/** Histogram with counts in memory-mapped file, so they survive restart of process.
+ *
+ * Counts are kept by MappedBinStorage and values are added by Histogram over it, so they are counted
+ * and intervals are added as in any histogram. Values are written straight to page cache, growing
+ * of intervals is forced to storage device and is safe against crash, see MappedBinStorage.
+ * Other process can open the same file and read current counts with snapshot(), it remaps file
+ * if writer expanded it. One process writes the file, reader may see counts of values added
+ * during snapshot partially.
+ * Number of bins can not be changed and file is never truncated, it grows with intervals added
+ * by EXPAND and keeps space of moved counts, see MappedBinStorage.
+ * Not thread-safe.
+ */
+public class MappedHistogram implements AutoCloseable {
+
+    private final MappedBinStorage storage; // Counts in mapped file.
+    private final Histogram histogram; // Histogram over counts of file, values of this process are added to it.
+
+    /** Open histogram file or create it if it does not exist or is empty.
+     *
+     * Boundaries and number of bins are used only for a new file, existing file keeps its own.
+     *
+     * @param file path to file.
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @throws UncheckedIOException if file can not be mapped.
+     */
+    public MappedHistogram(Path file, double minH, double maxH, int bins) {
+        this(open(file, minH, maxH, bins));
+    }
+
+    /** Open existing histogram file.
+     *
+     * @param file path to file.
+     * @throws UncheckedIOException if file can not be mapped.
+     * @throws IllegalHistogramEncoding if file does not contain histogram.
+     */
+    public MappedHistogram(Path file) {
+        this(new MappedBinStorage(file));
+    }
+
+    /** Constructor for MappedHistogram over opened file.
+     *
+     * @param storage counts in mapped file.
+     */
+    private MappedHistogram(MappedBinStorage storage) {
+        this.storage = storage;
+        this.histogram = new Histogram(storage.getMinH(), storage.getMaxH(), storage.getLayout(), storage, storage.getOnLeft());
+    }
+
+    /** Open histogram file or create it with intervals of given boundaries.
+     *
+     * @param file path to file.
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @return counts in mapped file.
+     */
+    private static MappedBinStorage open(Path file, double minH, double maxH, int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        if (!(minH < maxH)) {
+            throw new IllegalIntervalBounds("Invalid interval boundary. 'ceil' should be bigger than 'floor'.");
+        }
+        return new MappedBinStorage(file, minH, maxH, new LinearLayout(minH, maxH, bins));
+    }
+
+    /** Add single number to Histogram
+     *
+     * @param newValue value.
+     * @param appendType
+     *         ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *         EXPAND,    // Adds bins to the histogram in order to add value.
+     *         INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addNumber(double newValue, Histogram.AppendType appendType) {
+        this.histogram.addNumber(newValue, appendType);
+    }
+
+    /** Add array of values to histogram.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(double[] data, Histogram.AppendType appendType) {
+        this.histogram.addBatch(data, appendType);
+    }
+
+    /** Consistent copy of histogram.
+     *
+     * @return histogram with counts of file.
+     */
+    public Histogram snapshot() {
+        return this.storage.snapshot();
+    }
+
+    /** Write changed pages of file to storage device.
+     *
+     */
+    public void force() {
+        this.storage.force();
+    }
+
+    /** Close file, histogram can not be used after that.
+     *
+     * Mapping is released when it is collected.
+     */
+    @Override
+    public void close() {
+        this.histogram.close();
+    }
+
+    /** Getter for minH.
+     *
+     * @return Lower boundary of histogram.
+     */
+    public double getMinH() {
+        this.storage.reload();
+        return this.storage.getMinH();
+    }
+
+    /** Getter for maxH.
+     *
+     * @return Upper boundary of histogram.
+     */
+    public double getMaxH() {
+        this.storage.reload();
+        return this.storage.getMaxH();
+    }
+
+    /** Getter for bins.
+     *
+     * @return number of bins.
+     */
+    public int getBins() {
+        this.storage.reload();
+        return this.storage.size();
+    }
+
+    /** Count all elements in histogram.
+     *
+     * @return number of elements in histogram.
+     */
+    public long count() {
+        return snapshot().count();
+    }
+
+    /** Count number of elements from interval
+     *
+     * @param index index of the interval.
+     * @return number of elements.
+     */
+    public long count(int index) {
+        this.storage.reload();
+        if (index >= 0 && index < this.storage.size()) {
+            return this.storage.get(index);
+        } else {
+            throw new IndexOutOfBoundsException("Interval index out of bounds.");
+        }
+    }
+
+    /** Mean
+     *
+     * @return mean
+     */
+    public double mean() {
+        return snapshot().mean();
+    }
+
+    /** Quantile of added values, see Histogram.quantile(double).
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile or NaN if histogram is empty.
+     */
+    public double quantile(double q) {
+        return snapshot().quantile(q);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -0,0 +1,117 @@
+import exceptions.IllegalHistogramEncoding;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+class MappedHistogramTest {
+
+    @Test
+    void persistenceTest() throws IOException {
+        Path file = Files.createTempFile("histogram", ".bin");
+        Files.delete(file);
+        try {
+            Random random = new Random(20);
+            double[] data = new double[10000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextGaussian();
+            }
+            Histogram expected = new Histogram(0, 1, 4);
+            try (MappedHistogram writer = new MappedHistogram(file, 0, 1, 4)) {
+                //new file has header of 144 bytes and counts of its intervals.
+                Assertions.assertEquals(144 + 4 * Long.BYTES, Files.size(file));
+                writer.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+                expected.addNumber(0, Histogram.AppendType.INTERVAL_ONLY);
+                writer.addBatch(data, Histogram.AppendType.ADD_TO_EDGE);
+                expected.addBatch(data, Histogram.AppendType.ADD_TO_EDGE);
+                Assertions.assertEquals(expected.toString(), writer.toString());
+
+                //reader sees values and new intervals of writer.
+                MappedHistogram reader = new MappedHistogram(file);
+                Assertions.assertEquals(expected.count(), reader.count());
+                writer.addBatch(data, Histogram.AppendType.EXPAND);
+                expected.addBatch(data, Histogram.AppendType.EXPAND);
+                Assertions.assertEquals(expected.getBins(), reader.getBins());
+                Assertions.assertEquals(expected.toString(), reader.toString());
+                Assertions.assertEquals(expected.getInterval(0).getOnLeft(), reader.snapshot().getInterval(0).getOnLeft());
+                reader.close();
+                writer.force();
+            }
+
+            //reopened file keeps counts, its own boundaries are used, file is not truncated.
+            long grown = Files.size(file);
+            try (MappedHistogram reopened = new MappedHistogram(file, 5, 6, 1)) {
+                Assertions.assertEquals(grown, Files.size(file));
+                Assertions.assertEquals(expected.getMinH(), reopened.getMinH(), 0);
+                Assertions.assertEquals(expected.toString(), reopened.toString());
+                reopened.addNumber(100, Histogram.AppendType.EXPAND);
+                expected.addNumber(100, Histogram.AppendType.EXPAND);
+                Assertions.assertEquals(expected.count(expected.getBins() - 1), reopened.count(reopened.getBins() - 1));
+                Assertions.assertEquals(expected.quantile(0.5), reopened.quantile(0.5), 1e-12);
+            }
+            Files.write(file, new byte[100]);
+            Assertions.assertThrows(IllegalHistogramEncoding.class, () -> new MappedHistogram(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void crashTest() throws IOException {
+        Path file = Files.createTempFile("histogram", ".bin");
+        Files.delete(file);
+        try {
+            Histogram before;
+            Histogram after;
+            try (MappedHistogram writer = new MappedHistogram(file, 0, 4, 4)) {
+                writer.addBatch(new double[]{0, 0, 1.5, 3}, Histogram.AppendType.INTERVAL_ONLY);
+                writer.addNumber(-1.5, Histogram.AppendType.EXPAND);
+                writer.addNumber(-2.5, Histogram.AppendType.EXPAND);
+                before = writer.snapshot();
+                writer.addNumber(5.5, Histogram.AppendType.EXPAND);
+                after = writer.snapshot();
+            }
+            Assertions.assertEquals(2, before.count(2));
+            Assertions.assertEquals(9, after.getBins());
+
+            //file without the last switch of header, as if process crashed before it, has old intervals and counts.
+            generation(file, -1);
+            try (MappedHistogram reopened = new MappedHistogram(file)) {
+                Assertions.assertEquals(before.toString(), reopened.toString());
+            }
+            generation(file, 1);
+            try (MappedHistogram reopened = new MappedHistogram(file)) {
+                Assertions.assertEquals(after.toString(), reopened.toString());
+                reopened.addNumber(-3.5, Histogram.AppendType.EXPAND);
+                Assertions.assertEquals(10, reopened.getBins());
+            }
+            generation(file, -1);
+            try (MappedHistogram reopened = new MappedHistogram(file)) {
+                Assertions.assertEquals(after.toString(), reopened.toString());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Change generation of header in file.
+     *
+     * @param file path to file.
+     * @param delta added to generation.
+     * @throws IOException if file can not be written.
+     */
+    private static void generation(Path file, long delta) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            channel.read(buffer, MappedBinStorage.GENERATION);
+            buffer.putLong(0, buffer.getLong(0) + delta).rewind();
+            channel.write(buffer, MappedBinStorage.GENERATION);
+        }
+    }
+}
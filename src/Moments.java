@@ -0,0 +1,210 @@
+import java.nio.ByteBuffer;
+
+/** Running moments of added values.
+ *
+ * Mean and sums of powers of deviations from mean are updated with each value
+ * (Welford's algorithm extended to 3-rd and 4-th degree), so moments up to
+ * 4-th degree are exact and numerically stable.
+ */
+class Moments {
+    static final int MAX_DEGREE = 4; // Highest degree of tracked moment.
+
+    private long n; // Number of values.
+    private double mean; // Mean of values.
+    private double m2; // Sum of squared deviations from mean.
+    private double m3; // Sum of cubed deviations from mean.
+    private double m4; // Sum of deviations from mean in 4-th degree.
+
+    /** Add single value.
+     *
+     * @param value value.
+     */
+    void add(double value) {
+        long n1 = this.n;
+        this.n++;
+        double delta = value - this.mean;
+        double deltaN = delta / this.n;
+        double deltaN2 = deltaN * deltaN;
+        double term1 = delta * deltaN * n1;
+        this.mean += deltaN;
+        this.m4 += term1 * deltaN2 * ((double) this.n * this.n - 3 * this.n + 3)
+                + 6 * deltaN2 * this.m2 - 4 * deltaN * this.m3;
+        this.m3 += term1 * deltaN * (this.n - 2) - 3 * deltaN * this.m2;
+        this.m2 += term1;
+    }
+
+    /** Add all values of other moments.
+     *
+     * @param other other moments.
+     */
+    void add(Moments other) {
+        if (other.n == 0) {
+            return;
+        }
+        double nA = this.n;
+        double nB = other.n;
+        double n = nA + nB;
+        double delta = other.mean - this.mean;
+        double delta2 = delta * delta;
+        double m2 = this.m2 + other.m2 + delta2 * nA * nB / n;
+        double m3 = this.m3 + other.m3 + delta2 * delta * nA * nB * (nA - nB) / (n * n)
+                + 3 * delta * (nA * other.m2 - nB * this.m2) / n;
+        double m4 = this.m4 + other.m4 + delta2 * delta2 * nA * nB * (nA * nA - nA * nB + nB * nB) / (n * n * n)
+                + 6 * delta2 * (nA * nA * other.m2 + nB * nB * this.m2) / (n * n)
+                + 4 * delta * (nA * other.m3 - nB * this.m3) / n;
+        this.n += other.n;
+        this.mean += delta * nB / n;
+        this.m2 = m2;
+        this.m3 = m3;
+        this.m4 = m4;
+    }
+
+    /** Remove values of other moments, that were added before.
+     *
+     * @param other other moments.
+     */
+    void subtract(Moments other) {
+        if (other.n == 0) {
+            return;
+        }
+        if (other.n >= this.n) {
+            clear();
+            return;
+        }
+        double n = this.n;
+        double nB = other.n;
+        double nA = n - nB;
+        double meanA = (n * this.mean - nB * other.mean) / nA;
+        double delta = other.mean - meanA;
+        double delta2 = delta * delta;
+        double m2 = this.m2 - other.m2 - delta2 * nA * nB / n;
+        double m3 = this.m3 - other.m3 - delta2 * delta * nA * nB * (nA - nB) / (n * n)
+                - 3 * delta * (nA * other.m2 - nB * m2) / n;
+        double m4 = this.m4 - other.m4 - delta2 * delta2 * nA * nB * (nA * nA - nA * nB + nB * nB) / (n * n * n)
+                - 6 * delta2 * (nA * nA * other.m2 + nB * nB * m2) / (n * n)
+                - 4 * delta * (nA * other.m3 - nB * m3) / n;
+        this.n -= other.n;
+        this.mean = meanA;
+        this.m2 = m2;
+        this.m3 = m3;
+        this.m4 = m4;
+    }
+
+    /** Remove all values.
+     *
+     */
+    void clear() {
+        this.n = 0;
+        this.mean = 0;
+        this.m2 = 0;
+        this.m3 = 0;
+        this.m4 = 0;
+    }
+
+    /** Copy of moments.
+     *
+     * @return moments of same values.
+     */
+    Moments copy() {
+        Moments copy = new Moments();
+        copy.n = this.n;
+        copy.mean = this.mean;
+        copy.m2 = this.m2;
+        copy.m3 = this.m3;
+        copy.m4 = this.m4;
+        return copy;
+    }
+
+    /** Size of encoded moments.
+     *
+     * @return size in bytes.
+     */
+    int encodedSize() {
+        return VarInts.size(this.n) + 4 * Double.BYTES;
+    }
+
+    /** Write moments at buffer position.
+     *
+     * @param buffer buffer.
+     */
+    void encode(ByteBuffer buffer) {
+        VarInts.put(buffer, this.n);
+        buffer.putDouble(this.mean);
+        buffer.putDouble(this.m2);
+        buffer.putDouble(this.m3);
+        buffer.putDouble(this.m4);
+    }
+
+    /** Read moments from buffer position.
+     *
+     * @param buffer buffer.
+     * @return moments.
+     */
+    static Moments decode(ByteBuffer buffer) {
+        Moments moments = new Moments();
+        moments.n = VarInts.get(buffer);
+        moments.mean = buffer.getDouble();
+        moments.m2 = buffer.getDouble();
+        moments.m3 = buffer.getDouble();
+        moments.m4 = buffer.getDouble();
+        return moments;
+    }
+
+    /** Number of values.
+     *
+     * @return count.
+     */
+    long count() {
+        return this.n;
+    }
+
+    /** Raw moment of n-th degree.
+     *
+     * @param degree degree of moment, from 1 to MAX_DEGREE.
+     * @return raw moment.
+     */
+    double rawMoment(int degree) {
+        if (this.n == 0) {
+            return Double.NaN;
+        }
+        double mu2 = this.m2 / this.n;
+        double mu3 = this.m3 / this.n;
+        double mu4 = this.m4 / this.n;
+        double m = this.mean;
+        switch (degree) {
+            case 1:
+                return m;
+            case 2:
+                return mu2 + m * m;
+            case 3:
+                return mu3 + 3 * m * mu2 + m * m * m;
+            case 4:
+                return mu4 + 4 * m * mu3 + 6 * m * m * mu2 + m * m * m * m;
+            default:
+                throw new IllegalArgumentException("Only moments up to " + MAX_DEGREE + " degree are tracked.");
+        }
+    }
+
+    /** Central moment of n-th degree.
+     *
+     * @param degree degree of moment, from 1 to MAX_DEGREE.
+     * @return central moment.
+     */
+    double centralMoment(int degree) {
+        if (this.n == 0) {
+            return Double.NaN;
+        }
+        switch (degree) {
+            case 1:
+                return 0;
+            case 2:
+                return this.m2 / this.n;
+            case 3:
+                return this.m3 / this.n;
+            case 4:
+                return this.m4 / this.n;
+            default:
+                throw new IllegalArgumentException("Only moments up to " + MAX_DEGREE + " degree are tracked.");
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.DoubleConsumer;
+
+/** Reader of whitespace separated decimal numbers from file.
+ *
+ * File is memory-mapped in windows and numbers are parsed from bytes without creating objects.
+ * Numbers with at most 15 significant digits and decimal exponent up to 22 are converted exactly
+ * by one multiplication or division, other forms (more digits, NaN, Infinity, hex) fall back
+ * to Double.parseDouble.
+ */
+final class NumberFileReader {
+    private static final int WINDOW = 1 << 30; // Maximal size of mapped window.
+    private static final int MAX_EXACT_DIGITS = 15; // Digits that always fit into mantissa of double.
+    private static final double[] POWERS_OF_TEN = { // Exactly representable powers of ten.
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private NumberFileReader() {
+    }
+
+    /** Read all numbers from file.
+     *
+     * @param path path to file.
+     * @param consumer consumer of numbers.
+     * @throws IOException if file can not be read.
+     */
+    static void read(Path path, DoubleConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), consumer);
+        }
+    }
+
+    /** Read numbers which start in part of file.
+     *
+     * @param channel file channel.
+     * @param start first byte of part, should be start of file or follow whitespace.
+     * @param end byte after part, should be end of file or whitespace.
+     * @param consumer consumer of numbers.
+     * @throws IOException if file can not be read.
+     */
+    static void read(FileChannel channel, long start, long end, DoubleConsumer consumer) throws IOException {
+        long position = start;
+        while (position < end) {
+            long size = Math.min(WINDOW, end - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            int limit = (int) size;
+            if (position + size < end) {
+                // Last token may continue in next window.
+                while (limit > 0 && !isWhitespace(buffer.get(limit - 1))) {
+                    limit--;
+                }
+                if (limit == 0) {
+                    throw new NumberFormatException("Too long token at byte " + position + ".");
+                }
+            }
+            parse(buffer, limit, position, consumer);
+            position += limit;
+        }
+    }
+
+    /** Parse numbers from the start of buffer.
+     *
+     * @param buffer buffer.
+     * @param limit number of bytes to parse, ends with whitespace or end of data.
+     * @param offset position of buffer in file, for error messages.
+     * @param consumer consumer of numbers.
+     */
+    private static void parse(MappedByteBuffer buffer, int limit, long offset, DoubleConsumer consumer) {
+        int i = 0;
+        while (i < limit) {
+            byte b = buffer.get(i);
+            if (isWhitespace(b)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean negative = false;
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0; // significant digits in mantissa
+            int exponent = 0;
+            boolean hasDigits = false;
+            boolean exact = true;
+            boolean point = false;
+            for (; i < limit; i++) {
+                b = buffer.get(i);
+                if (b >= '0' && b <= '9') {
+                    hasDigits = true;
+                    if (mantissa == 0 && b == '0') {
+                        if (point) {
+                            exponent--;
+                        }
+                    } else if (digits < MAX_EXACT_DIGITS) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        digits++;
+                        if (point) {
+                            exponent--;
+                        }
+                    } else {
+                        exact = false;
+                    }
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (i < limit && (b == 'e' || b == 'E') && hasDigits) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < limit && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                    negativeExponent = buffer.get(i) == '-';
+                    i++;
+                }
+                int value = 0;
+                boolean hasExponent = false;
+                for (; i < limit && buffer.get(i) >= '0' && buffer.get(i) <= '9'; i++) {
+                    value = Math.min(10000, value * 10 + (buffer.get(i) - '0'));
+                    hasExponent = true;
+                }
+                exact = exact && hasExponent;
+                exponent += negativeExponent ? -value : value;
+            }
+            if (i < limit && !isWhitespace(buffer.get(i))) {
+                exact = false;
+                while (i < limit && !isWhitespace(buffer.get(i))) {
+                    i++;
+                }
+            }
+            if (exact && hasDigits && Math.abs(exponent) < POWERS_OF_TEN.length) {
+                double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+                consumer.accept(negative ? -value : value);
+            } else {
+                consumer.accept(parseSlow(buffer, start, i, offset));
+            }
+        }
+    }
+
+    /** Parse token with Double.parseDouble.
+     *
+     * @param buffer buffer.
+     * @param start first byte of token.
+     * @param end byte after token.
+     * @param offset position of buffer in file, for error messages.
+     * @return number.
+     */
+    private static double parseSlow(MappedByteBuffer buffer, int start, int end, long offset) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        String token = new String(bytes, StandardCharsets.US_ASCII);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Not a number '" + token + "' at byte " + (offset + start) + ".");
+        }
+    }
+
+    /** Whether byte is ASCII whitespace.
+     *
+     * @param b byte.
+     * @return true for space, tab, line feed, vertical tab, form feed and carriage return.
+     */
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+}
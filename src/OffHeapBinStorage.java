@@ -0,0 +1,180 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalIntervalBounds;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/** BinStorage with counts in direct memory outside of Java heap.
+ *
+ * Heap keeps only this handle, so many big histograms do not add work to garbage collector.
+ * Like dense storage, buffer keeps free space on both ends. Memory of buffer is freed at once by its
+ * cleaner on close() and when buffer is replaced by bigger one, storage can not be used after close().
+ * If JVM does not give access to cleaner, memory is returned when the buffer is collected.
+ */
+class OffHeapBinStorage extends BinStorage {
+    static final int MAX_SIZE = Integer.MAX_VALUE / Long.BYTES; // Biggest number of intervals in one buffer.
+    private static final MethodHandle CLEANER = cleaner(); // Frees direct buffer now, null if not accessible.
+
+    private ByteBuffer memory; // Direct buffer that owns memory of counts, null after close.
+    private LongBuffer counts; // Counts with free space on both ends, null after close.
+    private int head; // Index of the first interval in 'counts'.
+    private int size; // Number of intervals.
+
+    /** Constructor for OffHeapBinStorage.
+     *
+     * @param size number of empty intervals.
+     */
+    OffHeapBinStorage(int size) {
+        if (size > MAX_SIZE) {
+            throw new IllegalBinsValue("Off-heap histogram can not have more than " + MAX_SIZE + " 'bins'.");
+        }
+        allocate(size);
+        this.size = size;
+    }
+
+    /** Unsafe.invokeCleaner(ByteBuffer) bound to unsafe, found by reflection as it is not public API.
+     *
+     * @return handle or null if JVM does not allow access to it.
+     */
+    private static MethodHandle cleaner() {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field field = unsafe.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Replace buffer of counts with zeroed direct buffer, old buffer is not freed.
+     *
+     * @param length number of counts.
+     */
+    private void allocate(int length) {
+        this.memory = ByteBuffer.allocateDirect(length * Long.BYTES).order(ByteOrder.nativeOrder());
+        this.counts = this.memory.asLongBuffer();
+    }
+
+    /** Free memory of direct buffer now, buffer and its views can not be used after that.
+     *
+     * @param memory buffer returned by allocateDirect.
+     */
+    private static void free(ByteBuffer memory) {
+        if (CLEANER != null) {
+            try {
+                CLEANER.invokeExact(memory);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Can not free off-heap storage of histogram.", e);
+            }
+        }
+    }
+
+    /** Buffer of counts.
+     *
+     * @return buffer.
+     * @throws IllegalStateException if storage is closed.
+     */
+    private LongBuffer counts() {
+        LongBuffer counts = this.counts;
+        if (counts == null) {
+            throw new IllegalStateException("Off-heap storage of histogram is closed.");
+        }
+        return counts;
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    @Override
+    long get(int index) {
+        return counts().get(this.head + index);
+    }
+
+    @Override
+    void add(int index, long delta) {
+        LongBuffer counts = counts();
+        int i = this.head + index;
+        counts.put(i, counts.get(i) + delta);
+    }
+
+    @Override
+    void increment(int[] indices, int length) {
+        LongBuffer counts = counts();
+        int head = this.head;
+        for (int i = 0; i < length; i++) {
+            int j = head + indices[i];
+            counts.put(j, counts.get(j) + 1);
+        }
+    }
+
+    @Override
+    int next(int index) {
+        LongBuffer counts = counts();
+        int i = this.head + index;
+        int end = this.head + this.size;
+        while (i < end && counts.get(i) == 0) {
+            i++;
+        }
+        return i - this.head;
+    }
+
+    @Override
+    BinStorage grow(int left, int right) {
+        LongBuffer counts = counts();
+        int newSize = this.size + left + right;
+        if (newSize > MAX_SIZE) {
+            throw new IllegalIntervalBounds("Can not expand off-heap histogram, too many intervals.");
+        }
+        if (left > this.head || this.head + newSize - left > counts.capacity()) {
+            int capacity = Math.max(newSize, (int) Math.min(MAX_SIZE, 2L * counts.capacity()));
+            ByteBuffer oldMemory = this.memory;
+            allocate(capacity);
+            int newHead = (capacity - newSize) / 2;
+            this.counts.put(newHead + left, counts, this.head, this.size);
+            this.head = newHead;
+            free(oldMemory);
+        } else {
+            this.head -= left;
+        }
+        this.size = newSize;
+        return this;
+    }
+
+    @Override
+    void clear() {
+        LongBuffer counts = counts();
+        for (int i = this.head; i < this.head + this.size; i++) {
+            counts.put(i, 0);
+        }
+    }
+
+    @Override
+    BinStorage copy() {
+        OffHeapBinStorage copy = new OffHeapBinStorage(this.size);
+        copy.counts.put(0, counts(), this.head, this.size);
+        return copy;
+    }
+
+    /** Free buffer of counts, storage can not be used after that.
+     *
+     */
+    @Override
+    void close() {
+        ByteBuffer memory = this.memory;
+        if (memory != null) {
+            this.memory = null;
+            this.counts = null;
+            free(memory);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/** Histogram with counts outside of Java heap, created by Histogram.offHeap.
+ *
+ * Counts are kept by OffHeapBinStorage, values are added and evaluated as in any histogram.
+ * Direct memory of counts is freed by close(), histogram can not be used after that.
+ * Not thread-safe.
+ */
+public class OffHeapHistogram extends Histogram implements AutoCloseable {
+
+    /** Constructor for OffHeapHistogram.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param layout boundaries of intervals.
+     */
+    OffHeapHistogram(double minH, double maxH, BinLayout layout) {
+        super(minH, maxH, layout, BinStorage.Kind.OFF_HEAP);
+    }
+
+    /** Free direct memory of counts, histogram can not be used after that.
+     *
+     */
+    @Override
+    public void close() {
+        super.close();
+    }
+}
@@ -0,0 +1,262 @@
+import exceptions.IllegalMetricName;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/** Writer of histograms in OpenMetrics text format, also read by Prometheus.
+ *
+ * Histogram is written as cumulative buckets: bucket with label le counts values not greater
+ * than upper boundary of interval, last bucket +Inf counts all values, then _sum and _count follow.
+ * Text of a scrape is built in one buffer that keeps its capacity between scrapes: counts are
+ * appended without strings, labels of histogram are escaped once for all its buckets and boundaries
+ * are formatted once for all histograms with the same boundaries.
+ *
+ * Usage: family(name, help), histogram(h, labels...) for every series of family, next family,
+ * then writeTo(out) that ends text with # EOF and clears exporter for the next scrape.
+ * Not thread-safe.
+ */
+public class OpenMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8"; // Type of written text.
+    private static final String EOF = "# EOF\n"; // Last line of text.
+
+    private final StringBuilder text = new StringBuilder(); // Text of current scrape.
+    private final StringBuilder labels = new StringBuilder(); // Escaped labels of current histogram.
+    private double[] ceils = new double[0]; // Upper boundaries of intervals of last histogram.
+    private String[] bounds = new String[0]; // Formatted upper boundaries of intervals of last histogram.
+    private final char[] chars = new char[8192]; // Part of text encoded at once into byte buffer.
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE); // Encoder of text into bytes.
+    private String family; // Name of current metric family, null before the first family.
+    private int written; // Number of chars of text already written to byte buffer.
+
+    /** Start metric family of histograms.
+     *
+     * Every family should be started once per scrape.
+     *
+     * @param name name of metric, like request_duration_seconds.
+     * @param help description of metric, null if not written.
+     * @return this exporter.
+     */
+    public OpenMetricsExporter family(String name, String help) {
+        if (!isName(name, true)) {
+            throw new IllegalMetricName("Invalid metric name '" + name + "'.");
+        }
+        this.family = name;
+        this.text.append("# TYPE ").append(name).append(" histogram\n");
+        if (help != null) {
+            this.text.append("# HELP ").append(name).append(' ');
+            escape(this.text, help);
+            this.text.append('\n');
+        }
+        return this;
+    }
+
+    /** Write histogram as series of current family.
+     *
+     * @param histogram histogram.
+     * @param labels pairs of label name and value, like "method", "GET".
+     * @return this exporter.
+     */
+    public OpenMetricsExporter histogram(Histogram histogram, String... labels) {
+        if (this.family == null) {
+            throw new IllegalStateException("Metric family should be started before histogram.");
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalMetricName("Labels should be pairs of name and value.");
+        }
+        this.labels.setLength(0);
+        for (int i = 0; i < labels.length; i += 2) {
+            if (!isName(labels[i], false) || labels[i].equals("le")) {
+                throw new IllegalMetricName("Invalid label name '" + labels[i] + "'.");
+            }
+            if (i > 0) {
+                this.labels.append(',');
+            }
+            this.labels.append(labels[i]).append("=\"");
+            escape(this.labels, labels[i + 1]);
+            this.labels.append('"');
+        }
+        format(histogram);
+        long cumulative = 0;
+        for (int i = 0; i < histogram.getBins(); i++) {
+            cumulative += histogram.count(i);
+            bucket();
+            this.text.append(this.bounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        long count = histogram.count();
+        bucket();
+        this.text.append("+Inf\"} ").append(count).append('\n');
+        series("_sum");
+        number(this.text, count == 0 ? 0 : histogram.mean() * count);
+        this.text.append('\n');
+        series("_count");
+        this.text.append(count).append('\n');
+        return this;
+    }
+
+    /** Format upper boundaries of intervals, unless they are the same as of the last histogram.
+     *
+     * Series of family usually have equal boundaries, so they are formatted once per scrape or less.
+     *
+     * @param histogram histogram.
+     */
+    private void format(Histogram histogram) {
+        int bins = histogram.getBins();
+        boolean same = this.ceils.length == bins;
+        for (int i = 0; i < bins && same; i++) {
+            same = this.ceils[i] == histogram.ceil(i);
+        }
+        if (same) {
+            return;
+        }
+        this.ceils = new double[bins];
+        this.bounds = new String[bins];
+        StringBuilder bound = new StringBuilder();
+        for (int i = 0; i < bins; i++) {
+            this.ceils[i] = histogram.ceil(i);
+            bound.setLength(0);
+            number(bound, this.ceils[i]);
+            this.bounds[i] = bound.toString();
+        }
+    }
+
+    /** Append name and labels of bucket up to value of le.
+     *
+     */
+    private void bucket() {
+        this.text.append(this.family).append("_bucket{").append(this.labels);
+        this.text.append(this.labels.length() > 0 ? ",le=\"" : "le=\"");
+    }
+
+    /** Append name and labels of series with suffix.
+     *
+     * @param suffix suffix of family name.
+     */
+    private void series(String suffix) {
+        this.text.append(this.family).append(suffix);
+        if (this.labels.length() > 0) {
+            this.text.append('{').append(this.labels).append('}');
+        }
+        this.text.append(' ');
+    }
+
+    /** Append number in OpenMetrics format.
+     *
+     * @param out destination.
+     * @param value value.
+     */
+    private static void number(StringBuilder out, double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            out.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            out.append("-Inf");
+        } else {
+            out.append(value);
+        }
+    }
+
+    /** Write text of scrape, it is ended with # EOF and exporter is cleared for the next scrape.
+     *
+     * @param out destination of text.
+     * @throws IOException if out fails.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        if (this.written == 0) {
+            this.text.append(EOF);
+        }
+        out.append(this.text, this.written, this.text.length());
+        clear();
+    }
+
+    /** Write text of scrape as UTF-8 into buffer, as much as fits.
+     *
+     * If text does not fit, call again after buffer is drained: writing continues from where it stopped.
+     * When the whole text is written, exporter is cleared for the next scrape.
+     *
+     * @param buffer destination of text.
+     * @return true if the whole text is written, false if buffer is full.
+     */
+    public boolean writeTo(ByteBuffer buffer) {
+        if (this.written == 0) {
+            this.text.append(EOF);
+        }
+        int length = this.text.length();
+        int position = this.written;
+        this.encoder.reset();
+        while (position < length && buffer.hasRemaining()) {
+            int end = Math.min(position + this.chars.length, length);
+            this.text.getChars(position, end, this.chars, 0);
+            CharBuffer part = CharBuffer.wrap(this.chars, 0, end - position);
+            boolean overflow = this.encoder.encode(part, buffer, end == length).isOverflow();
+            position += part.position();
+            if (overflow) {
+                break;
+            }
+        }
+        if (position < length) {
+            if (position == 0) {
+                this.text.setLength(length - EOF.length());
+            }
+            this.written = position;
+            return false;
+        }
+        clear();
+        return true;
+    }
+
+    /** Drop text of current scrape, capacity of buffers is kept.
+     *
+     */
+    public void clear() {
+        this.text.setLength(0);
+        this.family = null;
+        this.written = 0;
+    }
+
+    /** Whether name is valid name of metric or label.
+     *
+     * @param name name.
+     * @param metric if true, colons are allowed.
+     * @return true if name is valid.
+     */
+    private static boolean isName(String name, boolean metric) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (metric && c == ':') || (i > 0 && c >= '0' && c <= '9');
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Append string with backslash, double quote and line feed escaped.
+     *
+     * @param out destination.
+     * @param value string.
+     */
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '"') {
+                out.append("\\\"");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import com.sun.net.httpserver.HttpServer;
+import exceptions.IllegalMetricName;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class OpenMetricsExporterTest {
+
+    @Test
+    void formatTest() throws IOException {
+        Histogram histogram = new Histogram(0, 4, 4, true);
+        histogram.addBatch(new double[]{0.5, 1.5, 1.5, 3, 7}, Histogram.AppendType.INTERVAL_ONLY);
+        OpenMetricsExporter exporter = new OpenMetricsExporter();
+        StringBuilder out = new StringBuilder();
+        exporter.family("latency_seconds", "Latency \"of\" requests.")
+                .histogram(histogram, "path", "/a\\b", "code", "200")
+                .family("empty", null)
+                .histogram(new Histogram(0, 1, 1))
+                .writeTo(out);
+        Assertions.assertEquals("# TYPE latency_seconds histogram\n"
+                + "# HELP latency_seconds Latency \\\"of\\\" requests.\n"
+                + "latency_seconds_bucket{path=\"/a\\\\b\",code=\"200\",le=\"1.0\"} 1\n"
+                + "latency_seconds_bucket{path=\"/a\\\\b\",code=\"200\",le=\"2.0\"} 3\n"
+                + "latency_seconds_bucket{path=\"/a\\\\b\",code=\"200\",le=\"3.0\"} 4\n"
+                + "latency_seconds_bucket{path=\"/a\\\\b\",code=\"200\",le=\"4.0\"} 4\n"
+                + "latency_seconds_bucket{path=\"/a\\\\b\",code=\"200\",le=\"+Inf\"} 4\n"
+                + "latency_seconds_sum{path=\"/a\\\\b\",code=\"200\"} 6.5\n"
+                + "latency_seconds_count{path=\"/a\\\\b\",code=\"200\"} 4\n"
+                + "# TYPE empty histogram\n"
+                + "empty_bucket{le=\"1.0\"} 0\n"
+                + "empty_bucket{le=\"+Inf\"} 0\n"
+                + "empty_sum 0.0\n"
+                + "empty_count 0\n"
+                + "# EOF\n", out.toString());
+
+        //exporter is cleared after scrape.
+        out.setLength(0);
+        exporter.family("empty", null).histogram(new Histogram(0, 1, 1)).writeTo(out);
+        Assertions.assertTrue(out.toString().startsWith("# TYPE empty histogram\n"));
+        Assertions.assertEquals(out.indexOf("# EOF"), out.lastIndexOf("# EOF"));
+
+        Assertions.assertThrows(IllegalMetricName.class, () -> exporter.family("1st", null));
+        Assertions.assertThrows(IllegalMetricName.class, () -> exporter.family("a-b", null));
+        Assertions.assertThrows(IllegalStateException.class, () -> exporter.histogram(histogram));
+        exporter.family("ok:name", null);
+        Assertions.assertThrows(IllegalMetricName.class, () -> exporter.histogram(histogram, "le", "1"));
+        Assertions.assertThrows(IllegalMetricName.class, () -> exporter.histogram(histogram, "a:b", "1"));
+        Assertions.assertThrows(IllegalMetricName.class, () -> exporter.histogram(histogram, "odd"));
+    }
+
+    @Test
+    void byteBufferTest() throws IOException {
+        Histogram histogram = new Histogram(0, 100, 50);
+        histogram.addBatch(new double[]{1, 10, 50, 99}, Histogram.AppendType.INTERVAL_ONLY);
+        OpenMetricsExporter exporter = new OpenMetricsExporter();
+        StringBuilder expected = new StringBuilder();
+        exporter.family("size_bytes", "Size, ünits.").histogram(histogram, "host", "ä").writeTo(expected);
+
+        //text is written in parts into small buffer.
+        exporter.family("size_bytes", "Size, ünits.").histogram(histogram, "host", "ä");
+        ByteBuffer buffer = ByteBuffer.allocate(61);
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        int parts = 0;
+        boolean done;
+        do {
+            done = exporter.writeTo(buffer);
+            buffer.flip();
+            bytes.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+            parts++;
+        } while (!done);
+        Assertions.assertTrue(parts > 10);
+        Assertions.assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void httpTest() throws IOException {
+        Histogram[] histograms = new Histogram[1000];
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram(0, 1, 20);
+            for (int j = 0; j < 100; j++) {
+                histograms[i].addNumber(random.nextDouble(), Histogram.AppendType.INTERVAL_ONLY);
+            }
+        }
+        OpenMetricsExporter exporter = new OpenMetricsExporter();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/metrics", exchange -> {
+            exporter.family("request_duration_seconds", "Duration of requests.");
+            for (int i = 0; i < histograms.length; i++) {
+                exporter.histogram(histograms[i], "instance", "node-" + i);
+            }
+            exchange.getResponseHeaders().set("Content-Type", OpenMetricsExporter.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                boolean done;
+                do {
+                    done = exporter.writeTo(buffer);
+                    body.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                } while (!done);
+            }
+        });
+        server.start();
+        try {
+            for (int scrape = 0; scrape < 2; scrape++) {
+                URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                Assertions.assertEquals(200, connection.getResponseCode());
+                Assertions.assertEquals(OpenMetricsExporter.CONTENT_TYPE, connection.getContentType());
+                String text;
+                try (InputStream in = connection.getInputStream()) {
+                    text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                }
+                String[] lines = text.split("\n");
+                Assertions.assertEquals(2 + histograms.length * 23 + 1, lines.length);
+                Assertions.assertEquals("# EOF", lines[lines.length - 1]);
+
+                //buckets are cumulative and +Inf is equal to count.
+                long previous = 0;
+                for (int i = 0; i < histograms.length; i++) {
+                    for (int j = 0; j < 23; j++) {
+                        String line = lines[2 + i * 23 + j];
+                        Assertions.assertTrue(line.contains("instance=\"node-" + i + "\""), line);
+                        long value = (long) Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                        if (j < 21) {
+                            Assertions.assertTrue(value >= (j == 0 ? 0 : previous), line);
+                            previous = value;
+                        }
+                        if (j == 20 || j == 22) {
+                            Assertions.assertEquals(histograms[i].count(), value, line);
+                        }
+                    }
+                }
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,675 @@
+import exceptions.IllegalBinsValue;
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalQuantile;
+import exceptions.IllegalSketchSize;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Streaming quantile sketch that needs no boundaries (KLL sketch).
+ *
+ * Values are kept in levels, value of level h stands for 2^h added values. Full level is sorted and
+ * every second value of it, starting from random one, moves to the next level. Capacities of levels
+ * shrink by 2/3 from the top one, which has capacity k, so sketch keeps O(k + log(count)) values.
+ * Normalized error of rank of any quantile is O(1/k) with high probability, about 1.3% for k = 200.
+ * Min, max and moments up to 4-th degree are exact. Sketches are mergeable and have binary encoding.
+ * Every sketch has its own random seed, so errors of different sketches are independent; copies and
+ * decoded sketches continue the same random sequence. Not thread-safe.
+ */
+public class QuantileSketch {
+    public static final int DEFAULT_K = 200; // Capacity of the top level by default.
+    static final int MIN_K = 8; // Smallest capacity of a level.
+    private static final double SHRINK = 2.0 / 3; // Ratio of capacities of neighbour levels.
+    private static final int MAX_LEVELS = 62; // Most levels, weight of value of the top one fits long.
+    private static final int ENCODING_MAGIC = 0x4B4C4C53; // First bytes of encoded sketch.
+    private static final byte ENCODING_VERSION = 2; // Version of encoding, version 1 has no random state.
+
+    private final int k; // Capacity of the top level.
+    private double[][] levels = new double[1][MIN_K]; // Retained values, value of level h weighs 2^h.
+    private int[] sizes = new int[1]; // Number of values in levels.
+    private int retained; // Number of values in all levels.
+    private int capacity; // Number of values that starts compaction.
+    private long count; // Number of added values.
+    private double min = Double.POSITIVE_INFINITY; // Lowest added value.
+    private double max = Double.NEGATIVE_INFINITY; // Highest added value.
+    private Moments moments = new Moments(); // Exact moments of added values.
+    private long random; // State of xorshift generator of compaction offsets, never 0.
+    private double[] sorted; // Retained values in order, null if values were added after sorting.
+    private long[] ranks; // Total weight of sorted values up to each one.
+
+    /** Constructor for QuantileSketch with default accuracy.
+     *
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /** Constructor for QuantileSketch.
+     *
+     * @param k capacity of the top level, error of ranks is inversely proportional to it.
+     */
+    public QuantileSketch(int k) {
+        this(k, ThreadLocalRandom.current().nextLong());
+    }
+
+    /** Constructor for QuantileSketch with reproducible compactions.
+     *
+     * @param k capacity of the top level, error of ranks is inversely proportional to it.
+     * @param seed seed of random compaction offsets, same seed and values give same sketch.
+     */
+    public QuantileSketch(int k, long seed) {
+        if (k < MIN_K) {
+            throw new IllegalSketchSize("Capacity of sketch should be at least " + MIN_K + ".");
+        }
+        this.k = k;
+        this.capacity = capacity(0);
+        this.random = mix(seed);
+    }
+
+    /** Scramble seed into state of xorshift generator, as in splitmix64.
+     *
+     * @param seed seed.
+     * @return non-zero state.
+     */
+    private static long mix(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    /** Capacity of level.
+     *
+     * @param level level.
+     * @return number of values that makes level full.
+     */
+    private int capacity(int level) {
+        int height = this.levels.length - level - 1;
+        return Math.max(MIN_K, (int) Math.ceil(this.k * Math.pow(SHRINK, height)));
+    }
+
+    /** Add level on top, capacities of lower levels shrink.
+     *
+     */
+    private void addLevel() {
+        int height = this.levels.length + 1;
+        if (height > MAX_LEVELS) {
+            throw new IllegalStateException("Quantile sketch can not have more than " + MAX_LEVELS + " levels.");
+        }
+        this.levels = Arrays.copyOf(this.levels, height);
+        this.levels[height - 1] = new double[MIN_K];
+        this.sizes = Arrays.copyOf(this.sizes, height);
+        this.capacity = 0;
+        for (int h = 0; h < height; h++) {
+            this.capacity += capacity(h);
+        }
+    }
+
+    /** Put value to level.
+     *
+     * @param level level.
+     * @param value value.
+     */
+    private void append(int level, double value) {
+        double[] values = this.levels[level];
+        int size = this.sizes[level];
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+            this.levels[level] = values;
+        }
+        values[size] = value;
+        this.sizes[level] = size + 1;
+        this.retained++;
+    }
+
+    /** Compact full levels until sketch has room for new values.
+     *
+     */
+    private void compress() {
+        while (this.retained >= this.capacity) {
+            for (int h = 0; h < this.levels.length; h++) {
+                if (this.sizes[h] >= capacity(h)) {
+                    if (h + 1 == this.levels.length) {
+                        addLevel();
+                    }
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Move every second value of level to the next one, one value stays if number of values is odd.
+     *
+     * @param level level.
+     */
+    private void compact(int level) {
+        double[] values = this.levels[level];
+        int size = this.sizes[level];
+        Arrays.sort(values, 0, size);
+        int kept = size % 2;
+        this.random ^= this.random << 13;
+        this.random ^= this.random >>> 7;
+        this.random ^= this.random << 17;
+        for (int i = (int) (this.random & 1); i < size - kept; i += 2) {
+            append(level + 1, values[i]);
+        }
+        if (kept != 0) {
+            values[0] = values[size - 1];
+        }
+        this.sizes[level] = kept;
+        this.retained -= size - kept;
+    }
+
+    /** Add single number to sketch, values that are not finite are ignored.
+     *
+     * @param newValue value.
+     */
+    public void addNumber(double newValue) {
+        if (!Double.isFinite(newValue)) {
+            return;
+        }
+        append(0, newValue);
+        this.count++;
+        this.min = Math.min(this.min, newValue);
+        this.max = Math.max(this.max, newValue);
+        this.moments.add(newValue);
+        this.sorted = null;
+        if (this.retained >= this.capacity) {
+            compress();
+        }
+    }
+
+    /** Add array of values to sketch.
+     *
+     * @param data array.
+     */
+    public void addBatch(double[] data) {
+        for (double num: data) {
+            addNumber(num);
+        }
+    }
+
+    /** Add array of values to sketch.
+     *
+     * @param data array.
+     */
+    public void addBatch(float[] data) {
+        for (float num: data) {
+            addNumber(num);
+        }
+    }
+
+    /** Add array of values to sketch.
+     *
+     * @param data array.
+     */
+    public void addBatch(int[] data) {
+        for (int num: data) {
+            addNumber(num);
+        }
+    }
+
+    /** Add all values of other sketch.
+     *
+     * Levels of other sketch are appended to the same levels of this one and compacted,
+     * error of ranks stays the same as if all values were added to this sketch.
+     *
+     * @param other other sketch, not changed.
+     */
+    public void merge(QuantileSketch other) {
+        if (other == this) {
+            other = copy();
+        }
+        while (this.levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        this.count += other.count;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        this.moments.add(other.moments);
+        this.sorted = null;
+        compress();
+    }
+
+    /** Copy of sketch.
+     *
+     * @return sketch with same values.
+     */
+    QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(this.k);
+        copy.levels = new double[this.levels.length][];
+        for (int h = 0; h < this.levels.length; h++) {
+            copy.levels[h] = this.levels[h].clone();
+        }
+        copy.sizes = this.sizes.clone();
+        copy.retained = this.retained;
+        copy.capacity = this.capacity;
+        copy.count = this.count;
+        copy.min = this.min;
+        copy.max = this.max;
+        copy.moments = this.moments.copy();
+        copy.random = this.random;
+        return copy;
+    }
+
+    /** Sort retained values with their weights, if they are not sorted yet.
+     *
+     * Levels are sorted one by one and merged, so weights go along with values.
+     */
+    private void sort() {
+        if (this.sorted != null) {
+            return;
+        }
+        double[] values = new double[this.retained];
+        long[] weights = new long[this.retained];
+        double[] merged = new double[this.retained];
+        long[] mergedWeights = new long[this.retained];
+        int length = 0;
+        for (int h = 0; h < this.levels.length; h++) {
+            double[] level = this.levels[h];
+            int size = this.sizes[h];
+            Arrays.sort(level, 0, size);
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < length || j < size) {
+                if (j == size || (i < length && values[i] <= level[j])) {
+                    merged[n] = values[i];
+                    mergedWeights[n++] = weights[i++];
+                } else {
+                    merged[n] = level[j++];
+                    mergedWeights[n++] = 1L << h;
+                }
+            }
+            double[] swap = values;
+            values = merged;
+            merged = swap;
+            long[] swapWeights = weights;
+            weights = mergedWeights;
+            mergedWeights = swapWeights;
+            length = n;
+        }
+        for (int i = 1; i < length; i++) {
+            weights[i] += weights[i - 1];
+        }
+        this.sorted = values;
+        this.ranks = weights;
+    }
+
+    /** Count all values added to sketch.
+     *
+     * @return number of values.
+     */
+    public long count() {
+        return this.count;
+    }
+
+    /** Number of values kept by sketch.
+     *
+     * @return number of retained values.
+     */
+    int retained() {
+        return this.retained;
+    }
+
+    /** Getter for k.
+     *
+     * @return capacity of the top level.
+     */
+    public int getK() {
+        return this.k;
+    }
+
+    /** Approximate quantile.
+     *
+     * Retained value is returned, whose rank is the first one not lower than q * count().
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile, exact min for 0 and max for 1, or NaN if sketch is empty.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalQuantile("Level of quantile should be from 0 to 1.");
+        }
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return this.min;
+        }
+        if (q == 1) {
+            return this.max;
+        }
+        sort();
+        double rank = q * this.count;
+        int low = 0;
+        int high = this.sorted.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.ranks[mid] < rank) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return this.sorted[low];
+    }
+
+    /** Approximate quantiles.
+     *
+     * @param qs levels of quantiles from 0 to 1.
+     * @return quantile for every level, see quantile(double).
+     */
+    public double[] quantiles(double... qs) {
+        double[] quantiles = new double[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            quantiles[i] = quantile(qs[i]);
+        }
+        return quantiles;
+    }
+
+    /** Approximate normalized rank of value.
+     *
+     * @param value value.
+     * @return part of added values not bigger than value, NaN if sketch is empty.
+     */
+    public double rank(double value) {
+        if (this.count == 0) {
+            return Double.NaN;
+        }
+        sort();
+        int low = 0;
+        int high = this.sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? 0 : (double) this.ranks[low - 1] / this.count;
+    }
+
+    /**
+     *
+     * @return Median.
+     */
+    public double median() {
+        return quantile(0.5);
+    }
+
+    /** Lowest added value.
+     *
+     * @return min or NaN if sketch is empty.
+     */
+    public double min() {
+        return this.count == 0 ? Double.NaN : this.min;
+    }
+
+    /** Highest added value.
+     *
+     * @return max or NaN if sketch is empty.
+     */
+    public double max() {
+        return this.count == 0 ? Double.NaN : this.max;
+    }
+
+    /** Range of added values.
+     *
+     * @return range.
+     */
+    public double range() {
+        return max() - min();
+    }
+
+    /** Mean
+     *
+     * @return mean
+     */
+    public double mean() {
+        return rawMoment(1);
+    }
+
+    /**
+     *
+     * @return Standard Deviation, square root of raw moment of 2-nd degree as in Histogram.
+     */
+    public double std() {
+        return Math.sqrt(rawMoment(2));
+    }
+
+    /**
+     *
+     * @return variance.
+     */
+    public double variance() {
+        return std() / mean();
+    }
+
+    /**
+     *
+     * @return skewness.
+     */
+    public double skewness() {
+        return centralMoment(3) / Math.pow(std(), 3);
+    }
+
+    /**
+     *
+     * @return excess.
+     */
+    public double excess() {
+        return kurtosis() - 3;
+    }
+
+    /**
+     *
+     * @return kurtosis = excess + 3.
+     */
+    public double kurtosis() {
+        return centralMoment(4) / Math.pow(std(), 4);
+    }
+
+    /** Exact raw moment of n-th degree.
+     *
+     * @param n degree of moment, from 1 to 4.
+     * @return Raw moment.
+     */
+    public double rawMoment(int n) {
+        return this.moments.rawMoment(n);
+    }
+
+    /** Exact central moment of n-th degree.
+     *
+     * @param n degree of moment, from 1 to 4.
+     * @return Central moment.
+     */
+    public double centralMoment(int n) {
+        return this.moments.centralMoment(n);
+    }
+
+    /** Statistical describe of sketch.
+     *
+     * @return string.
+     */
+    public String describe() {
+        return   "Describe sketch:\n" + "Count = " +
+                count() +
+                "\nRange = " +
+                range() +
+                "\nMean = " +
+                mean() +
+                "\nMedian = " +
+                median() +
+                "\nSTD = " +
+                std() +
+                "\nVariance coef = " +
+                variance() +
+                "\nSkewness = " +
+                skewness() +
+                "\nExcess = " +
+                excess() +
+                "\nKurtosis = " +
+                kurtosis();
+    }
+
+    /** Histogram of retained values with their weights.
+     *
+     * Intervals are equal and span from min to max of added values, a single distinct value gets
+     * interval of width 1 around it and empty sketch gets [0; 1]. Counts follow the sketch,
+     * so every count has the rank error of the sketch.
+     *
+     * @param bins Number of bins in histogram.
+     * @return histogram with count() values.
+     */
+    public Histogram toHistogram(int bins) {
+        if (bins<=0){
+            throw new IllegalBinsValue("Can not initialize Histogram with negative or 0 'bins'");
+        }
+        double minH = 0;
+        double maxH = 1;
+        if (this.count != 0) {
+            minH = this.min < this.max ? this.min : this.min - 0.5;
+            maxH = this.min < this.max ? this.max : this.max + 0.5;
+        }
+        LinearLayout layout = new LinearLayout(minH, maxH, bins);
+        long[] counts = new long[bins];
+        long onLeft = 0;
+        for (int h = 0; h < this.levels.length; h++) {
+            long weight = 1L << h;
+            for (int i = 0; i < this.sizes[h]; i++) {
+                double value = this.levels[h][i];
+                int index = layout.index(value);
+                if (index < 0) {
+                    index = value <= minH ? 0 : bins - 1;
+                }
+                counts[index] += weight;
+                if (value == minH) {
+                    onLeft += weight;
+                }
+            }
+        }
+        return new Histogram(minH, maxH, layout, new DenseBinStorage(counts), onLeft);
+    }
+
+    /** Size of encoded sketch.
+     *
+     * @return size in bytes.
+     */
+    public int encodedSize() {
+        int size = Integer.BYTES + 1 + VarInts.size(this.k) + VarInts.size(this.count) + 2 * Double.BYTES
+                + this.moments.encodedSize() + VarInts.size(this.levels.length);
+        for (int h = 0; h < this.levels.length; h++) {
+            size += VarInts.size(this.sizes[h]) + this.sizes[h] * Double.BYTES;
+        }
+        return size + Long.BYTES;
+    }
+
+    /** Write binary form of sketch at buffer position.
+     *
+     * Encoding keeps k, count, min, max, exact moments, retained values of every level
+     * and state of random generator, so decoded sketch compacts values as this one would.
+     * Numbers are big-endian whatever order buffer has.
+     *
+     * @param buffer heap or direct buffer with at least encodedSize() bytes remaining.
+     */
+    public void encode(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            buffer.putInt(ENCODING_MAGIC);
+            buffer.put(ENCODING_VERSION);
+            VarInts.put(buffer, this.k);
+            VarInts.put(buffer, this.count);
+            buffer.putDouble(this.min);
+            buffer.putDouble(this.max);
+            this.moments.encode(buffer);
+            VarInts.put(buffer, this.levels.length);
+            for (int h = 0; h < this.levels.length; h++) {
+                VarInts.put(buffer, this.sizes[h]);
+                for (int i = 0; i < this.sizes[h]; i++) {
+                    buffer.putDouble(this.levels[h][i]);
+                }
+            }
+            buffer.putLong(this.random);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /** Read sketch written by encode() from buffer position.
+     *
+     * Sketch of version 1 has no random state, it gets new seed.
+     * @param buffer heap or direct buffer.
+     * @return sketch.
+     */
+    public static QuantileSketch decode(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != ENCODING_MAGIC) {
+                throw new IllegalHistogramEncoding("Buffer does not contain quantile sketch.");
+            }
+            byte version = buffer.get();
+            if (version != 1 && version != ENCODING_VERSION) {
+                throw new IllegalHistogramEncoding("Unknown version of quantile sketch encoding.");
+            }
+            long k = VarInts.get(buffer);
+            long count = VarInts.get(buffer);
+            if (k < MIN_K || k > Integer.MAX_VALUE) {
+                throw new IllegalHistogramEncoding("Invalid capacity of encoded quantile sketch.");
+            }
+            QuantileSketch sketch = new QuantileSketch((int) k);
+            sketch.count = count;
+            sketch.min = buffer.getDouble();
+            sketch.max = buffer.getDouble();
+            sketch.moments = Moments.decode(buffer);
+            long levels = VarInts.get(buffer);
+            if (levels < 1 || levels > MAX_LEVELS) {
+                throw new IllegalHistogramEncoding("Invalid levels of encoded quantile sketch.");
+            }
+            while (sketch.levels.length < levels) {
+                sketch.addLevel();
+            }
+            long weight = 0;
+            for (int h = 0; h < levels; h++) {
+                long size = VarInts.get(buffer);
+                if (size > buffer.remaining() / Double.BYTES) {
+                    throw new IllegalHistogramEncoding("Invalid values of encoded quantile sketch.");
+                }
+                for (int i = 0; i < size; i++) {
+                    sketch.append(h, buffer.getDouble());
+                }
+                weight += size << h;
+            }
+            if (version != 1) {
+                sketch.random = buffer.getLong();
+                if (sketch.random == 0) {
+                    throw new IllegalHistogramEncoding("Invalid random state of encoded quantile sketch.");
+                }
+            }
+            if (weight != count || sketch.moments.count() != count) {
+                throw new IllegalHistogramEncoding("Invalid count of encoded quantile sketch.");
+            }
+            sketch.compress();
+            return sketch;
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch(k = " + this.k + ", count = " + this.count + ", retained = " + this.retained + ")";
+    }
+}
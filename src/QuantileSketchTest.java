@@ -0,0 +1,100 @@
+import exceptions.IllegalHistogramEncoding;
+import exceptions.IllegalQuantile;
+import exceptions.IllegalSketchSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+class QuantileSketchTest {
+
+    /** Assert that quantiles of sketch have ranks close to their levels in exact data.
+     *
+     * @param sorted sorted data.
+     * @param sketch sketch of data.
+     */
+    private static void assertRanks(double[] sorted, QuantileSketch sketch) {
+        for (double q = 0.01; q < 1; q += 0.01) {
+            double value = sketch.quantile(q);
+            int rank = Arrays.binarySearch(sorted, value);
+            Assertions.assertTrue(rank >= 0);
+            Assertions.assertEquals(q, (double) rank / sorted.length, 0.02);
+            Assertions.assertEquals(q, sketch.rank(value), 0.02);
+        }
+    }
+
+    @Test
+    void sketchTest(){
+        Random random = new Random(21);
+        double[] data = new double[1_000_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Math.exp(random.nextGaussian() * 2);
+        }
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_K, 21);
+        sketch.addBatch(data);
+        sketch.addNumber(Double.NaN);
+        double[] sorted = data.clone();
+        Arrays.sort(sorted);
+        Assertions.assertEquals(data.length, sketch.count());
+        Assertions.assertTrue(sketch.retained() < 1000);
+        assertRanks(sorted, sketch);
+        Assertions.assertEquals(sorted[0], sketch.quantile(0));
+        Assertions.assertEquals(sorted[data.length - 1], sketch.quantile(1));
+        Assertions.assertEquals(Arrays.stream(data).average().getAsDouble(), sketch.mean(), 1e-9);
+
+        //merged sketches of parts keep error.
+        QuantileSketch left = new QuantileSketch(QuantileSketch.DEFAULT_K, 1);
+        QuantileSketch right = new QuantileSketch(QuantileSketch.DEFAULT_K, 2);
+        left.addBatch(Arrays.copyOfRange(data, 0, data.length / 3));
+        right.addBatch(Arrays.copyOfRange(data, data.length / 3, data.length));
+        left.merge(right);
+        Assertions.assertEquals(data.length, left.count());
+        Assertions.assertTrue(left.retained() < 1000);
+        assertRanks(sorted, left);
+
+        //decoded sketch gives same answers.
+        ByteBuffer buffer = ByteBuffer.allocate(sketch.encodedSize());
+        sketch.encode(buffer);
+        Assertions.assertEquals(0, buffer.remaining());
+        buffer.flip();
+        QuantileSketch decoded = QuantileSketch.decode(buffer);
+        Assertions.assertEquals(sketch.describe(), decoded.describe());
+        Assertions.assertArrayEquals(sketch.quantiles(0.1, 0.5, 0.99), decoded.quantiles(0.1, 0.5, 0.99));
+
+        //copied and decoded sketches continue random sequence of compactions.
+        String described = sketch.describe();
+        QuantileSketch copy = sketch.copy();
+        for (QuantileSketch continued : new QuantileSketch[]{copy, decoded}) {
+            continued.addBatch(Arrays.copyOf(data, 10_000));
+        }
+        Assertions.assertEquals(copy.describe(), decoded.describe());
+
+        //version 1 has no random state.
+        ByteBuffer old = ByteBuffer.allocate(buffer.limit() - Long.BYTES);
+        old.put(buffer.array(), 0, old.capacity());
+        old.put(4, (byte) 1);
+        old.flip();
+        Assertions.assertEquals(described, QuantileSketch.decode(old).describe());
+        buffer.put(4, (byte) 9);
+        buffer.rewind();
+        Assertions.assertThrows(IllegalHistogramEncoding.class, () -> QuantileSketch.decode(buffer));
+
+        //projection on histogram.
+        Histogram histogram = sketch.toHistogram(10);
+        Assertions.assertEquals(10, histogram.getBins());
+        Assertions.assertEquals(data.length, histogram.count());
+        Assertions.assertEquals(sorted[0], histogram.getMinH());
+        Assertions.assertTrue(histogram.count(0) > 0.9 * data.length);
+
+        QuantileSketch single = new QuantileSketch(QuantileSketch.MIN_K);
+        Assertions.assertTrue(Double.isNaN(single.median()));
+        Assertions.assertEquals(0, single.toHistogram(2).count());
+        single.addBatch(new int[]{3, 3});
+        Assertions.assertEquals(3, single.median());
+        Assertions.assertEquals(2, single.toHistogram(3).count(1));
+        Assertions.assertThrows(IllegalQuantile.class, () -> single.quantile(-1));
+        Assertions.assertThrows(IllegalSketchSize.class, () -> new QuantileSketch(1));
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/** Records values from many threads for interval reports.
+ *
+ * Every writer thread adds values to its own private Histogram, so adding costs no atomic operations.
+ * getIntervalHistogram() swaps private histograms with empty ones and merges the old ones
+ * into one report with all values added since previous call.
+ */
+public class Recorder {
+
+    /** Private histogram of writer thread.
+     *
+     */
+    private static class Writer {
+        private final Thread thread; // Owner thread.
+        private volatile Histogram active; // Histogram for new values.
+        private volatile long epoch; // Odd while owner thread is adding value.
+
+        Writer(Thread thread, Histogram active) {
+            this.thread = thread;
+            this.active = active;
+        }
+    }
+
+    private final double minH; // Lower boundary of new histograms.
+    private final double maxH; // Upper boundary of new histograms.
+    private final int bins; // Number of bins in new histograms.
+    private final boolean exactMoments; // Whether new histograms track exact moments.
+    private final Queue<Writer> writers = new ConcurrentLinkedQueue<>(); // Writers of all threads.
+    private final ThreadLocal<Writer> writer = ThreadLocal.withInitial(this::register); // Writer of current thread.
+
+    /** Constructor for Recorder.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     */
+    public Recorder(double minH, double maxH, int bins) {
+        this(minH, maxH, bins, false);
+    }
+
+    /** Constructor for Recorder.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @param exactMoments if true, histograms track exact moments.
+     */
+    public Recorder(double minH, double maxH, int bins, boolean exactMoments) {
+        this.minH = minH;
+        this.maxH = maxH;
+        this.bins = bins;
+        this.exactMoments = exactMoments;
+        newHistogram(); // Checks boundaries and bins.
+    }
+
+    /** Empty histogram with recorder boundaries.
+     *
+     * @return histogram.
+     */
+    private Histogram newHistogram() {
+        return new Histogram(this.minH, this.maxH, this.bins, this.exactMoments);
+    }
+
+    /** Create writer for current thread.
+     *
+     * @return writer.
+     */
+    private Writer register() {
+        Writer newWriter = new Writer(Thread.currentThread(), newHistogram());
+        this.writers.add(newWriter);
+        return newWriter;
+    }
+
+    /** Add single number from current thread.
+     *
+     * @param newValue value.
+     * @param appendType
+     *         ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *         EXPAND,    // Adds bins to the histogram in order to add value.
+     *         INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addNumber(double newValue, Histogram.AppendType appendType) {
+        Writer current = this.writer.get();
+        current.epoch++;
+        try {
+            current.active.addNumber(newValue, appendType);
+        } finally {
+            current.epoch++;
+        }
+    }
+
+    /** Add array of values from current thread.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(double[] data, Histogram.AppendType appendType) {
+        Writer current = this.writer.get();
+        current.epoch++;
+        try {
+            current.active.addBatch(data, appendType);
+        } finally {
+            current.epoch++;
+        }
+    }
+
+    /** Values added since previous call.
+     *
+     * Histograms of writer threads are swapped with empty ones and merged. A writer in the middle
+     * of adding value is awaited, so no value is lost or counted twice. Writers of finished threads
+     * are dropped after their last values are merged.
+     *
+     * @return histogram with merged values of all threads.
+     */
+    public synchronized Histogram getIntervalHistogram() {
+        Histogram report = newHistogram();
+        for (Writer current : this.writers) {
+            boolean alive = current.thread.isAlive();
+            Histogram old = current.active;
+            current.active = newHistogram();
+            long epoch = current.epoch;
+            if ((epoch & 1) != 0) {
+                while (current.epoch == epoch) {
+                    Thread.onSpinWait();
+                }
+            }
+            report.merge(old);
+            if (!alive) {
+                this.writers.remove(current);
+            }
+        }
+        return report;
+    }
+}
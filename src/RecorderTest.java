@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class RecorderTest {
+
+    @Test
+    void intervalHistogramTest() throws InterruptedException {
+        Recorder recorder = new Recorder(0, 10, 10);
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++){
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i=0; i<100000; i++){
+                    recorder.addNumber(random.nextDouble() * 40 - 20 * seed, Histogram.AppendType.EXPAND);
+                }
+            });
+            threads[t].start();
+        }
+
+        //reports are taken while threads are adding values.
+        List<Histogram> reports = new ArrayList<>();
+        for (int i=0; i<20; i++){
+            reports.add(recorder.getIntervalHistogram());
+            Thread.sleep(1);
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+        reports.add(recorder.getIntervalHistogram());
+
+        Histogram expected = new Histogram(0, 10, 10);
+        for (int t=0; t<threads.length; t++){
+            Random random = new Random(t);
+            for (int i=0; i<100000; i++){
+                expected.addNumber(random.nextDouble() * 40 - 20 * t, Histogram.AppendType.EXPAND);
+            }
+        }
+        Histogram total = new Histogram(0, 10, 10);
+        for (Histogram report: reports){
+            total.merge(report);
+        }
+        Assertions.assertEquals(400000, total.count());
+        Assertions.assertEquals(expected.getBins(), total.getBins());
+        for (int i=0; i<expected.getBins(); i++){
+            Assertions.assertEquals(expected.count(i), total.count(i));
+        }
+        Assertions.assertEquals(0, recorder.getIntervalHistogram().count());
+    }
+}
@@ -0,0 +1,203 @@
+import exceptions.IllegalWindowValue;
+
+import java.util.function.LongSupplier;
+
+/** Histogram of values added during the last time window, like last 60 seconds.
+ *
+ * Window is split into slices of equal duration kept in a ring, every slice is a Histogram
+ * with values added during it. Running aggregate of live slices is kept in one more Histogram:
+ * values are added to it together with current slice and expired slices are subtracted from it,
+ * so queries never merge slices. Expired slices are cleared and reused without allocation.
+ * Not thread-safe.
+ */
+public class SlidingWindowHistogram {
+
+    private final Histogram window; // Values of all live slices.
+    private final Histogram[] slices; // Values of every slice, slice number modulo length is position in ring.
+    private final long sliceMillis; // Duration of slice in milliseconds.
+    private final LongSupplier clock; // Current time in milliseconds.
+    private long current; // Number of the current slice.
+
+    /** Constructor for SlidingWindowHistogram with system clock.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @param slices Number of slices in window.
+     * @param sliceMillis Duration of slice in milliseconds.
+     */
+    public SlidingWindowHistogram(double minH, double maxH, int bins, int slices, long sliceMillis) {
+        this(minH, maxH, bins, slices, sliceMillis, false, System::currentTimeMillis);
+    }
+
+    /** Constructor for SlidingWindowHistogram.
+     *
+     * @param minH Lower histogram boundary.
+     * @param maxH Upper histogram boundary.
+     * @param bins Number of bins in histogram.
+     * @param slices Number of slices in window.
+     * @param sliceMillis Duration of slice in milliseconds.
+     * @param exactMoments if true, moments of window are computed from added values.
+     * @param clock current time in milliseconds.
+     */
+    public SlidingWindowHistogram(double minH, double maxH, int bins, int slices, long sliceMillis,
+                                  boolean exactMoments, LongSupplier clock) {
+        if (slices <= 0 || sliceMillis <= 0) {
+            throw new IllegalWindowValue("Number and duration of slices should be positive.");
+        }
+        this.window = new Histogram(minH, maxH, bins, exactMoments);
+        this.slices = new Histogram[slices];
+        for (int i = 0; i < slices; i++) {
+            this.slices[i] = this.window.emptyCopy();
+        }
+        this.sliceMillis = sliceMillis;
+        this.clock = clock;
+        this.current = Math.floorDiv(clock.getAsLong(), sliceMillis);
+    }
+
+    /** Add single number to current slice.
+     *
+     * @param newValue value.
+     * @param appendType
+     *         ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *         EXPAND,    // Adds bins to the histogram in order to add value.
+     *         INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addNumber(double newValue, Histogram.AppendType appendType) {
+        rotate();
+        slice(this.current).addNumber(newValue, appendType);
+        this.window.addNumber(newValue, appendType);
+    }
+
+    /** Add array of values to current slice.
+     *
+     * @param data array.
+     * @param appendType
+     *              ADD_TO_EDGE, // Add value to the edge of histogram if value is not in histogram.
+     *              EXPAND,    // Adds bins to the histogram in order to add value.
+     *              INTERVAL_ONLY, // Values from interval only added.
+     */
+    public void addBatch(double[] data, Histogram.AppendType appendType) {
+        rotate();
+        slice(this.current).addBatch(data, appendType);
+        this.window.addBatch(data, appendType);
+    }
+
+    /** Slice of given number.
+     *
+     * @param number number of slice.
+     * @return slice.
+     */
+    private Histogram slice(long number) {
+        return this.slices[(int) Math.floorMod(number, (long) this.slices.length)];
+    }
+
+    /** Subtract slices that left window by now and reuse them.
+     *
+     * Time going backwards keeps current slice.
+     */
+    private void rotate() {
+        long now = Math.floorDiv(this.clock.getAsLong(), this.sliceMillis);
+        if (now <= this.current) {
+            return;
+        }
+        long expired = Math.min(now - this.current, this.slices.length);
+        for (long number = now - expired + 1; number <= now; number++) {
+            int position = (int) Math.floorMod(number, (long) this.slices.length);
+            Histogram slice = this.slices[position];
+            if (slice.count() > 0) {
+                this.window.subtract(slice);
+            }
+            if (slice.getBins() != this.window.getBins() || slice.getMinH() != this.window.getMinH()) {
+                slice.close();
+                this.slices[position] = this.window.emptyCopy();
+            } else {
+                slice.clear();
+            }
+        }
+        this.current = now;
+        if (this.window.count() == 0) {
+            this.window.clear();
+        }
+    }
+
+    /** Histogram of values in window.
+     *
+     * @return copy of window.
+     */
+    public Histogram snapshot() {
+        rotate();
+        return this.window.copy();
+    }
+
+    /** Count all elements in window.
+     *
+     * @return number of elements.
+     */
+    public long count() {
+        rotate();
+        return this.window.count();
+    }
+
+    /** Mean of values in window.
+     *
+     * @return mean.
+     */
+    public double mean() {
+        rotate();
+        return this.window.mean();
+    }
+
+    /**
+     *
+     * @return Median of values in window.
+     */
+    public double median() {
+        rotate();
+        return this.window.median();
+    }
+
+    /**
+     *
+     * @return Standard Deviation of values in window.
+     */
+    public double std() {
+        rotate();
+        return this.window.std();
+    }
+
+    /** Quantile of values in window, see Histogram.quantile(double).
+     *
+     * @param q level of quantile from 0 to 1.
+     * @return quantile or NaN if window is empty.
+     */
+    public double quantile(double q) {
+        rotate();
+        return this.window.quantile(q);
+    }
+
+    /** Quantiles of values in window.
+     *
+     * @param qs levels of quantiles from 0 to 1.
+     * @return quantile for every level.
+     */
+    public double[] quantiles(double... qs) {
+        rotate();
+        return this.window.quantiles(qs);
+    }
+
+    /** Description of values in window.
+     *
+     * @return description.
+     */
+    public String describe() {
+        rotate();
+        return this.window.describe();
+    }
+
+    @Override
+    public String toString() {
+        rotate();
+        return this.window.toString();
+    }
+}
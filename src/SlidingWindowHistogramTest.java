@@ -0,0 +1,50 @@
+import exceptions.IllegalWindowValue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class SlidingWindowHistogramTest {
+
+    private long now; // Time of test clock.
+
+    @Test
+    void windowTest(){
+        SlidingWindowHistogram histogram = new SlidingWindowHistogram(0, 10, 10, 3, 1000, true, () -> now);
+        histogram.addNumber(1.5, Histogram.AppendType.INTERVAL_ONLY);
+        now = 1500;
+        histogram.addNumber(2.5, Histogram.AppendType.INTERVAL_ONLY);
+        now = 2999;
+        histogram.addBatch(new double[]{3.5, 12}, Histogram.AppendType.EXPAND);
+        Assertions.assertEquals(4, histogram.count());
+        Assertions.assertEquals(4.875, histogram.mean(), 1e-12);
+
+        //first slice leaves window.
+        now = 3000;
+        Assertions.assertEquals(3, histogram.count());
+        Assertions.assertEquals(6, histogram.mean(), 1e-12);
+        Assertions.assertEquals(12, histogram.quantile(1), 1e-12);
+
+        //values added after expanding go to reused slices with same intervals.
+        histogram.addNumber(12.5, Histogram.AppendType.ADD_TO_EDGE);
+        Assertions.assertEquals(4, histogram.count());
+        Assertions.assertEquals(2, histogram.snapshot().count(11));
+        now = 4999;
+        Assertions.assertEquals(3, histogram.count());
+        now = 5000;
+        Assertions.assertEquals(1, histogram.count());
+        Assertions.assertEquals(1, histogram.snapshot().count(11));
+        Assertions.assertEquals(12, histogram.mean(), 1e-12);
+        Assertions.assertEquals(11.5, histogram.median(), 1e-12);
+
+        //window is empty after long pause, clock going backwards keeps current slice.
+        now = 100000;
+        Assertions.assertEquals(0, histogram.count());
+        Assertions.assertTrue(Double.isNaN(histogram.quantile(0.5)));
+        histogram.addNumber(0.5, Histogram.AppendType.INTERVAL_ONLY);
+        now = 99000;
+        histogram.addNumber(0.5, Histogram.AppendType.INTERVAL_ONLY);
+        Assertions.assertEquals(2, histogram.count());
+        Assertions.assertEquals(0.5, histogram.mean(), 1e-12);
+
+        Assertions.assertThrows(IllegalWindowValue.class, () -> new SlidingWindowHistogram(0, 10, 10, 0, 1000));
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+/** BinStorage that keeps only blocks of intervals with non-zero counts.
+ *
+ * Intervals are grouped into aligned blocks of BLOCK counts, blocks are kept in arrays sorted
+ * by block number and found by binary search, with the last used block cached. Intervals are
+ * added to both ends by moving origin, so growing costs O(1) memory however far it goes.
+ */
+class SparseBinStorage extends BinStorage {
+    static final int BLOCK_SHIFT = 6; // Binary logarithm of number of intervals in block.
+    static final int BLOCK = 1 << BLOCK_SHIFT; // Number of intervals in block.
+    static final int MIN_SIZE = 1 << 16; // Smaller storages are always dense.
+    static final int TO_SPARSE = 4; // Dense storage becomes sparse if its non-empty blocks cover less than 1/TO_SPARSE of it.
+    static final int TO_DENSE = 2; // Sparse storage becomes dense if its blocks cover at least 1/TO_DENSE of it.
+
+    private int[] keys; // Sorted numbers of allocated blocks.
+    private long[][] blocks; // Counts of allocated blocks.
+    private int used; // Number of allocated blocks.
+    private int cached; // Position of the last used block in 'keys'.
+    private long offset; // Position of interval 0 in blocks.
+    private int size; // Number of intervals.
+    private final Kind kind; // Kind of storage that counts return to when blocks cover big part of it.
+
+    /** Constructor for SparseBinStorage.
+     *
+     * @param size number of empty intervals.
+     * @param kind kind of storage created when storage fills up, DENSE or COMPACT.
+     */
+    SparseBinStorage(int size, Kind kind) {
+        this.keys = new int[8];
+        this.blocks = new long[8][];
+        this.size = size;
+        this.kind = kind;
+    }
+
+    /** Constructor for SparseBinStorage with counts of dense or compact storage.
+     *
+     * @param dense dense storage, its kind is restored when storage fills up.
+     */
+    SparseBinStorage(BinStorage dense) {
+        this(dense.size(), dense instanceof CompactBinStorage ? Kind.COMPACT : Kind.DENSE);
+        for (int i = dense.next(0); i < this.size; i = dense.next(i + 1)) {
+            add(i, dense.get(i));
+        }
+    }
+
+    /** Number of aligned blocks with non-zero counts in dense or compact storage.
+     *
+     * @param dense dense storage.
+     * @return number of blocks.
+     */
+    static int blocks(BinStorage dense) {
+        int blocks = 0;
+        int size = dense.size();
+        for (int i = dense.next(0); i < size; i = dense.next((int) Math.min(size, (i / BLOCK + 1L) * BLOCK))) {
+            blocks++;
+        }
+        return blocks;
+    }
+
+    @Override
+    int size() {
+        return this.size;
+    }
+
+    /** Position of block in 'keys'.
+     *
+     * @param key number of block.
+     * @return position, or -(insertion point) - 1 if block is not allocated.
+     */
+    private int find(int key) {
+        int cached = this.cached;
+        if (cached < this.used && this.keys[cached] == key) {
+            return cached;
+        }
+        int position = Arrays.binarySearch(this.keys, 0, this.used, key);
+        if (position >= 0) {
+            this.cached = position;
+        }
+        return position;
+    }
+
+    @Override
+    long get(int index) {
+        long position = index + this.offset;
+        int block = find((int) (position >> BLOCK_SHIFT));
+        return block < 0 ? 0 : this.blocks[block][(int) (position & (BLOCK - 1))];
+    }
+
+    @Override
+    void add(int index, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        long position = index + this.offset;
+        int key = (int) (position >> BLOCK_SHIFT);
+        int block = find(key);
+        if (block < 0) {
+            block = -block - 1;
+            if (this.used == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.used * 2);
+                this.blocks = Arrays.copyOf(this.blocks, this.used * 2);
+            }
+            System.arraycopy(this.keys, block, this.keys, block + 1, this.used - block);
+            System.arraycopy(this.blocks, block, this.blocks, block + 1, this.used - block);
+            this.keys[block] = key;
+            this.blocks[block] = new long[BLOCK];
+            this.used++;
+            this.cached = block;
+        }
+        this.blocks[block][(int) (position & (BLOCK - 1))] += delta;
+    }
+
+    @Override
+    int next(int index) {
+        if (index >= this.size) {
+            return this.size;
+        }
+        long position = index + this.offset;
+        int block = find((int) (position >> BLOCK_SHIFT));
+        int from = (int) (position & (BLOCK - 1));
+        if (block < 0) {
+            block = -block - 1;
+            from = 0;
+        }
+        for (; block < this.used; block++, from = 0) {
+            long[] counts = this.blocks[block];
+            for (int i = from; i < BLOCK; i++) {
+                if (counts[i] != 0) {
+                    long next = ((long) this.keys[block] << BLOCK_SHIFT) + i - this.offset;
+                    return (int) Math.min(next, this.size);
+                }
+            }
+        }
+        return this.size;
+    }
+
+    @Override
+    BinStorage grow(int left, int right) {
+        this.offset -= left;
+        this.size += left + right;
+        return this;
+    }
+
+    /** Copy of storage of its original kind if its blocks cover big part of it.
+     *
+     * @return this storage, or dense or compact one.
+     */
+    @Override
+    BinStorage adapted() {
+        if ((long) this.used * BLOCK * TO_DENSE < this.size) {
+            return this;
+        }
+        if (this.kind == Kind.COMPACT) {
+            BinStorage compact = new CompactBinStorage(this.size);
+            for (int i = next(0); i < this.size; i = next(i + 1)) {
+                compact.add(i, get(i));
+            }
+            return compact;
+        }
+        long[] counts = new long[this.size];
+        for (int i = next(0); i < this.size; i = next(i + 1)) {
+            counts[i] = get(i);
+        }
+        return new DenseBinStorage(counts);
+    }
+
+    @Override
+    void clear() {
+        Arrays.fill(this.blocks, 0, this.used, null);
+        this.used = 0;
+        this.cached = 0;
+    }
+
+    @Override
+    BinStorage copy() {
+        SparseBinStorage copy = new SparseBinStorage(this.size, this.kind);
+        copy.keys = Arrays.copyOf(this.keys, this.keys.length);
+        copy.blocks = new long[this.blocks.length][];
+        for (int i = 0; i < this.used; i++) {
+            copy.blocks[i] = this.blocks[i].clone();
+        }
+        copy.used = this.used;
+        copy.offset = this.offset;
+        return copy;
+    }
+
+    @Override
+    long total() {
+        long sum = 0;
+        for (int i = 0; i < this.used; i++) {
+            for (long count : this.blocks[i]) {
+                sum += count;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,53 @@
+/** Cache of statistics of Histogram that are evaluated over all intervals.
+ *
+ * Histogram clears cache whenever counts change, so repeated queries of unchanged
+ * histogram cost O(1).
+ */
+class StatisticsCache {
+    static final int MEDIAN = 0; // Slot of median.
+    static final int RANGE = 1; // Slot of range.
+    static final int MAD = 2; // Slot of median absolute deviation.
+    static final int RAW_MOMENT = 3; // Slot of raw moment of degree 1, next slots for next degrees.
+    static final int CENTRAL_MOMENT = RAW_MOMENT + Moments.MAX_DEGREE; // Slot of central moment of degree 1.
+    private static final int SLOTS = CENTRAL_MOMENT + Moments.MAX_DEGREE; // Number of cached values.
+
+    private final double[] values = new double[SLOTS]; // Cached values.
+    private int valid; // Bit mask of slots with valid values.
+
+    /** Whether slot has valid value.
+     *
+     * @param slot slot.
+     * @return true if value is cached.
+     */
+    boolean has(int slot) {
+        return (this.valid & (1 << slot)) != 0;
+    }
+
+    /** Cached value.
+     *
+     * @param slot slot with valid value.
+     * @return value.
+     */
+    double get(int slot) {
+        return this.values[slot];
+    }
+
+    /** Cache value.
+     *
+     * @param slot slot.
+     * @param value value.
+     * @return value.
+     */
+    double put(int slot, double value) {
+        this.values[slot] = value;
+        this.valid |= 1 << slot;
+        return value;
+    }
+
+    /** Drop all cached values.
+     *
+     */
+    void clear() {
+        this.valid = 0;
+    }
+}
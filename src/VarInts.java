@@ -0,0 +1,57 @@
+import exceptions.IllegalHistogramEncoding;
+
+import java.nio.ByteBuffer;
+
+/** Helper for variable-length encoding of non-negative longs.
+ *
+ * Every byte keeps 7 bits of value, highest bit is set if more bytes follow.
+ */
+final class VarInts {
+
+    private VarInts() {
+    }
+
+    /** Number of bytes for value.
+     *
+     * @param value non-negative value.
+     * @return size in bytes.
+     */
+    static int size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** Write value at buffer position.
+     *
+     * @param buffer buffer.
+     * @param value non-negative value.
+     */
+    static void put(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** Read value from buffer position.
+     *
+     * @param buffer buffer.
+     * @return value.
+     */
+    static long get(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalHistogramEncoding("Too long variable-length number.");
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/** BinStorage that keeps weights of intervals next to their counts.
+ *
+ * Every added value gets current weight of storage, that owner sets before adding. Counts are kept
+ * by inner storage, so Histogram over this storage counts values as usual. Weights are kept in array
+ * with free space on both ends, like in dense storage. Weight of values on the left boundary
+ * of the first interval is followed, so it moves with them when intervals are added to the left.
+ */
+class WeightedBinStorage extends BinStorage {
+    private BinStorage counts; // Counts of intervals.
+    private double[] weights; // Weights of intervals with free space on both ends.
+    private int head; // Index of the first interval in 'weights'.
+    private double onLeft; // Weight of values on the left boundary of the first interval.
+    private double weight = 1; // Weight of added values.
+
+    /** Constructor for WeightedBinStorage.
+     *
+     * @param size number of empty intervals.
+     */
+    WeightedBinStorage(int size) {
+        this.counts = BinStorage.create(size);
+        this.weights = new double[size];
+    }
+
+    /** Setter for weight.
+     *
+     * @param weight weight of values added after this call.
+     */
+    void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    /** Weight of interval.
+     *
+     * @param index index of the interval.
+     * @return sum of weights of its values.
+     */
+    double weight(int index) {
+        return this.weights[this.head + index];
+    }
+
+    /** Multiply all weights by factor.
+     *
+     * @param factor factor.
+     */
+    void scale(double factor) {
+        int size = size();
+        for (int i = this.head; i < this.head + size; i++) {
+            this.weights[i] *= factor;
+        }
+        this.onLeft *= factor;
+    }
+
+    @Override
+    int size() {
+        return this.counts.size();
+    }
+
+    @Override
+    long get(int index) {
+        return this.counts.get(index);
+    }
+
+    @Override
+    void add(int index, long delta) {
+        this.counts.add(index, delta);
+        this.weights[this.head + index] += delta * this.weight;
+    }
+
+    @Override
+    void addOnLeft(long count) {
+        this.onLeft += count * this.weight;
+    }
+
+    @Override
+    void moveOnLeft(int index, long count) {
+        this.counts.moveOnLeft(index, count);
+        this.weights[this.head + index] -= this.onLeft;
+        this.weights[this.head + index - 1] += this.onLeft;
+        this.onLeft = 0;
+    }
+
+    @Override
+    int next(int index) {
+        return this.counts.next(index);
+    }
+
+    @Override
+    void clear() {
+        this.counts.clear();
+        Arrays.fill(this.weights, 0);
+        this.onLeft = 0;
+    }
+
+    /** Add empty intervals to both ends of storage, amortized O(1) per interval.
+     *
+     * @param left number of intervals added before first one.
+     * @param right number of intervals added after last one.
+     * @return this storage.
+     */
+    @Override
+    BinStorage grow(int left, int right) {
+        int size = size();
+        int newSize = size + left + right;
+        if (left > this.head || this.head + newSize - left > this.weights.length) {
+            int capacity = Math.max(newSize, (int) Math.min(BinLayout.MAX_BINS, 2L * this.weights.length));
+            double[] newWeights = new double[capacity];
+            int newHead = (capacity - newSize) / 2;
+            System.arraycopy(this.weights, this.head, newWeights, newHead + left, size);
+            this.weights = newWeights;
+            this.head = newHead;
+        } else {
+            this.head -= left;
+        }
+        this.counts = this.counts.grow(left, right);
+        return this;
+    }
+
+    @Override
+    BinStorage adapted() {
+        this.counts = this.counts.adapted();
+        return this;
+    }
+
+    @Override
+    BinStorage copy() {
+        WeightedBinStorage copy = new WeightedBinStorage(0);
+        copy.counts = this.counts.copy();
+        copy.weights = new double[size()];
+        System.arraycopy(this.weights, this.head, copy.weights, 0, size());
+        copy.onLeft = this.onLeft;
+        copy.weight = this.weight;
+        return copy;
+    }
+
+    @Override
+    long total() {
+        return this.counts.total();
+    }
+}
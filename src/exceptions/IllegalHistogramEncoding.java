@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for bytes that are not encoded histogram.
+ *
+ */
+public class IllegalHistogramEncoding extends IllegalArgumentException {
+    public IllegalHistogramEncoding(String message) {
+        super(message);
+    }
+}
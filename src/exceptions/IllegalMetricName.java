@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for invalid name of metric or label in exported text.
+ *
+ */
+public class IllegalMetricName extends IllegalArgumentException {
+    public IllegalMetricName(String message) {
+        super(message);
+    }
+}
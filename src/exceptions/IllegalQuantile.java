@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for quantile levels out of [0; 1].
+ *
+ */
+public class IllegalQuantile extends IllegalArgumentException {
+    public IllegalQuantile(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for too small accuracy parameter of quantile sketch.
+ *
+ */
+public class IllegalSketchSize extends IllegalArgumentException {
+    public IllegalSketchSize(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for invalid number or duration of slices of time window.
+ *
+ */
+public class IllegalWindowValue extends IllegalArgumentException {
+    public IllegalWindowValue(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package exceptions;
+
+/** Exception for operations on histograms with different intervals.
+ *
+ */
+public class IncompatibleHistograms extends IllegalArgumentException {
+    public IncompatibleHistograms(String message) {
+        super(message);
+    }
+}